@@ -0,0 +1,64 @@
+package com.example.demo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.service.CartService;
+import com.example.demo.service.InventoryMemory;
+
+/**
+ * One expireAbandonedCarts sweep over 1k and 100k live sessions, once when
+ * nothing is due yet and once when every session has passed its TTL.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class CartExpiryBenchmark {
+
+  /** comfortably past the 20 minute cart TTL */
+  private static final long PAST_TTL_MS = 21 * 60 * 1000;
+
+  @Param({ "1000", "100000" })
+  public int sessions;
+
+  private CartService carts;
+  private long start;
+
+  @Setup(Level.Invocation)
+  public void setup() {
+    InventoryMemory inventory = new InventoryMemory();
+    inventory.setStock(1, Integer.MAX_VALUE / 2);
+    carts = CartServiceBenchmark.newCartService(inventory);
+    start = System.currentTimeMillis();
+    for (int i = 0; i < sessions; i++) {
+      carts.addOne("session-" + i, 1);
+    }
+  }
+
+  @Benchmark
+  public CartService sweepNoneDue() {
+    carts.expireAbandonedCarts(start + 1_000);
+    return carts;
+  }
+
+  @Benchmark
+  public CartService sweepAllDue() {
+    carts.expireAbandonedCarts(start + PAST_TTL_MS);
+    return carts;
+  }
+}
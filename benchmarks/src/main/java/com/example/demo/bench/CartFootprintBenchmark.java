@@ -0,0 +1,90 @@
+package com.example.demo.bench;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.service.CartService;
+import com.example.demo.service.InventoryMemory;
+
+/**
+ * Memory cost of a live two-line cart, against the map-per-session layout
+ * the compact records replaced. Each invocation fills a fresh store with
+ * {@link #SESSIONS} carts whose session ids are built up front. Run with
+ * {@code -prof gc}: {@code gc.alloc.rate.norm} is then the bytes allocated
+ * per session, an upper bound on what each one keeps on the heap.
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar CartFootprintBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CartFootprintBenchmark {
+
+  static final int SESSIONS = 10_000;
+  static final int PRODUCTS = 500;
+
+  private String[] sids;
+  private InventoryMemory inventory;
+
+  @Setup
+  public void sessions() {
+    sids = new String[SESSIONS];
+    for (int i = 0; i < SESSIONS; i++) {
+      sids[i] = "session-" + i;
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void stock() {
+    inventory = new InventoryMemory();
+    for (long id = 1; id <= PRODUCTS; id++) {
+      inventory.setStock(id, Integer.MAX_VALUE / 2);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SESSIONS)
+  public CartService compactCarts() {
+    CartService carts = CartServiceBenchmark.newCartService(inventory);
+    for (int i = 0; i < SESSIONS; i++) {
+      carts.addOne(sids[i], 1 + i % PRODUCTS);
+      carts.addUpTo(sids[i], 1 + (i + 1) % PRODUCTS, 2);
+    }
+    return carts;
+  }
+
+  /** the layout before compact records: a concurrent map per session plus a touch map */
+  @Benchmark
+  @OperationsPerInvocation(SESSIONS)
+  public Object mapPerSession() {
+    Map<String, Map<Long, Integer>> carts = new ConcurrentHashMap<>();
+    Map<String, Long> touched = new ConcurrentHashMap<>();
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < SESSIONS; i++) {
+      Map<Long, Integer> cart = new ConcurrentHashMap<>();
+      cart.put(1L + i % PRODUCTS, 1);
+      cart.put(1L + (i + 1) % PRODUCTS, 2);
+      carts.put(sids[i], cart);
+      touched.put(sids[i], now);
+    }
+    return new Object[] { carts, touched };
+  }
+}
@@ -0,0 +1,111 @@
+package com.example.demo.bench;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.service.CartService;
+import com.example.demo.service.InventoryMemory;
+import com.example.demo.service.ReservationJournal;
+
+/**
+ * CartService hot paths over a population of live sessions, each thread
+ * picking a random session per call. The nested classes run the same suite
+ * at 1, 8 and 32 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class CartServiceBenchmark {
+
+  static final int PRODUCTS = 64;
+
+  @Param({ "1000", "100000" })
+  public int sessions;
+
+  protected InventoryMemory inventory;
+  protected CartService carts;
+  protected String[] sids;
+
+  @Setup
+  public void setup() {
+    inventory = new InventoryMemory();
+    for (long id = 1; id <= PRODUCTS; id++) {
+      inventory.setStock(id, Integer.MAX_VALUE / 2);
+    }
+    carts = newCartService(inventory);
+    sids = new String[sessions];
+    for (int i = 0; i < sessions; i++) {
+      sids[i] = "session-" + i;
+      carts.addOne(sids[i], 1 + i % PRODUCTS);
+    }
+  }
+
+  static CartService newCartService(InventoryMemory inventory) {
+    return new CartService(inventory, null, new ReservationJournal(false, "target/journal"));
+  }
+
+  private String sid() {
+    return sids[ThreadLocalRandom.current().nextInt(sessions)];
+  }
+
+  private long product() {
+    return 1 + ThreadLocalRandom.current().nextInt(PRODUCTS);
+  }
+
+  @Benchmark
+  public boolean addOneRemoveOne() {
+    String sid = sid();
+    long id = product();
+    carts.addOne(sid, id);
+    return carts.removeOne(sid, id);
+  }
+
+  @Benchmark
+  public Map<Long, Integer> getItems() {
+    return carts.getItems(sid());
+  }
+
+  /** the /api/cart/touch ping and every read go through this; should not write */
+  @Benchmark
+  public int touchAndGetQty() {
+    String sid = sid();
+    carts.touch(sid);
+    return carts.getQty(sid, product());
+  }
+
+  @Benchmark
+  public boolean releaseAllAndRefill() {
+    String sid = sid();
+    carts.releaseAll(sid);
+    return carts.addOne(sid, product());
+  }
+
+  @Threads(1)
+  public static class T1 extends CartServiceBenchmark {
+  }
+
+  @Threads(8)
+  public static class T8 extends CartServiceBenchmark {
+  }
+
+  @Threads(32)
+  public static class T32 extends CartServiceBenchmark {
+  }
+}
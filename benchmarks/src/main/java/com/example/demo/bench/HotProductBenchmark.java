@@ -0,0 +1,65 @@
+package com.example.demo.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.service.InventoryMemory;
+
+/**
+ * Every thread reserving and returning units of one SKU, with the product in
+ * the plain stock table versus flash-sale (striped) mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotProductBenchmark {
+
+  private static final long SKU = 42;
+
+  @Param({ "false", "true" })
+  public boolean hot;
+
+  private InventoryMemory inventory;
+
+  @Setup
+  public void setup() {
+    inventory = new InventoryMemory();
+    inventory.setStock(SKU, 1_000_000);
+    inventory.setHot(SKU, hot);
+  }
+
+  private boolean roundTrip() {
+    boolean ok = inventory.reserveOne(SKU);
+    if (ok) {
+      inventory.unreserveOne(SKU);
+    }
+    return ok;
+  }
+
+  @Benchmark
+  @Threads(32)
+  public boolean oneSku_32t() {
+    return roundTrip();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public boolean oneSku_64t() {
+    return roundTrip();
+  }
+}
@@ -0,0 +1,129 @@
+package com.example.demo.bench;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.demo.service.InventoryMemory;
+
+/**
+ * reserveOne + unreserveOne round trips: the primitive stock table behind
+ * {@link InventoryMemory} against the {@code ConcurrentHashMap<Long, AtomicInteger>}
+ * store it replaced, at 1, 8 and 64 contending threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryMemoryBenchmark {
+
+  /** The map-based store as it was before the stock table. */
+  static final class MapInventory {
+    private final ConcurrentHashMap<Long, AtomicInteger> stock = new ConcurrentHashMap<>();
+
+    void setStock(long id, int qty) {
+      stock.put(id, new AtomicInteger(qty));
+    }
+
+    boolean reserveOne(long id) {
+      stock.putIfAbsent(id, new AtomicInteger(0));
+      AtomicInteger ai = stock.get(id);
+      while (true) {
+        int cur = ai.get();
+        if (cur <= 0) return false;
+        if (ai.compareAndSet(cur, cur - 1)) return true;
+      }
+    }
+
+    void unreserveOne(long id) {
+      stock.computeIfPresent(id, (k, ai) -> { ai.incrementAndGet(); return ai; });
+    }
+  }
+
+  /** 1 = every thread fights over one SKU */
+  @Param({ "1", "64" })
+  public int products;
+
+  private InventoryMemory table;
+  private MapInventory map;
+
+  @Setup
+  public void setup() {
+    table = new InventoryMemory();
+    map = new MapInventory();
+    for (long id = 1; id <= products; id++) {
+      table.setStock(id, 1_000_000);
+      map.setStock(id, 1_000_000);
+    }
+  }
+
+  private long pick() {
+    return 1 + ThreadLocalRandom.current().nextInt(products);
+  }
+
+  private boolean table() {
+    long id = pick();
+    boolean ok = table.reserveOne(id);
+    table.unreserveOne(id);
+    return ok;
+  }
+
+  private boolean map() {
+    long id = pick();
+    boolean ok = map.reserveOne(id);
+    map.unreserveOne(id);
+    return ok;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean table_1t() {
+    return table();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean table_8t() {
+    return table();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public boolean table_64t() {
+    return table();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean map_1t() {
+    return map();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean map_8t() {
+    return map();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public boolean map_64t() {
+    return map();
+  }
+}
@@ -0,0 +1,210 @@
+package com.example.demo.component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+
+import com.example.demo.service.CartService;
+
+/**
+ * Signed cookie that carries a visitor's cart when
+ * {@code app.cart.cookie.enabled} is on, so the cart endpoints never need an
+ * {@code HttpSession}.
+ * <p>
+ * The cookie holds the cart id, which keys the units the server holds, plus
+ * a copy of the cart lines and the time it was issued. It is signed with
+ * HMAC-SHA256 under {@code app.cart.cookie.secret}. A node that has never
+ * seen the cart id re-reserves the lines from the cookie. A tampered or
+ * foreign cookie, or one issued longer than the cart reserve time ago, is
+ * treated as absent: the cart it describes has expired, and an old copy must
+ * not be replayed to reserve stock again.
+ * <p>
+ * Layout before base64url: {@code version(1) issuedAt(8) cartId(16) lines(2)},
+ * then {@code productId(8) qty(4)} per line, then {@code "."} and the
+ * signature.
+ */
+@Component
+public class CartCookie {
+
+  public static final String NAME = "cart";
+
+  private static final Logger log = LoggerFactory.getLogger(CartCookie.class);
+
+  private static final byte VERSION = 2;
+  private static final int ID_BYTES = 16;
+  private static final String ID_PREFIX = "c.";
+  private static final String HMAC = "HmacSHA256";
+
+  /** a cookie is reissued once it is this old, so a cart kept alive by reads keeps a valid cookie */
+  private static final long RENEW_AFTER_MS = CartService.CART_TTL_MS / 2;
+
+  /** keeps the cookie under the 4 KB browsers allow; further lines stay server-side only */
+  private static final int MAX_LINES = 200;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  /** What a valid cookie carried. */
+  public record Contents(String cartId, Map<Long, Integer> items, long issuedAt) {
+
+    public boolean dueForRenewal(long now) {
+      return now - issuedAt >= RENEW_AFTER_MS;
+    }
+  }
+
+  private final boolean enabled;
+  private final boolean secure;
+  private final SecretKeySpec key;
+  private final SecureRandom random = new SecureRandom();
+
+  private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+  public CartCookie(@Value("${app.cart.cookie.enabled:false}") boolean enabled,
+      @Value("${app.cart.cookie.secret:}") String secret,
+      @Value("${app.cart.cookie.secure:true}") boolean secure) {
+    this.enabled = enabled;
+    this.secure = secure;
+    byte[] keyBytes;
+    if (secret.isBlank()) {
+      keyBytes = new byte[32];
+      random.nextBytes(keyBytes);
+      if (enabled) {
+        log.warn("No app.cart.cookie.secret set; using a random key, "
+            + "so cart cookies will not survive a restart or move between nodes");
+      }
+    } else {
+      keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+    }
+    this.key = new SecretKeySpec(keyBytes, HMAC);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String newCartId() {
+    byte[] id = new byte[ID_BYTES];
+    random.nextBytes(id);
+    return ID_PREFIX + ENCODER.encodeToString(id);
+  }
+
+  /** @return the cookie's cart, or {@code null} when there is none, it does not verify or it has expired */
+  public Contents read(HttpServletRequest request) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies == null) {
+      return null;
+    }
+    for (Cookie cookie : cookies) {
+      if (NAME.equals(cookie.getName())) {
+        return decode(cookie.getValue());
+      }
+    }
+    return null;
+  }
+
+  public void write(HttpServletResponse response, String cartId, Map<Long, Integer> items) {
+    if (items.isEmpty()) {
+      clear(response);
+      return;
+    }
+    set(response, encode(cartId, items, System.currentTimeMillis()), CartService.CART_TTL_MS / 1000);
+  }
+
+  public void clear(HttpServletResponse response) {
+    set(response, "", 0);
+  }
+
+  private void set(HttpServletResponse response, String value, long maxAgeSeconds) {
+    ResponseCookie cookie = ResponseCookie.from(NAME, value)
+        .httpOnly(true)
+        .secure(secure)
+        .sameSite("Lax")
+        .path("/")
+        .maxAge(maxAgeSeconds)
+        .build();
+    response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+  }
+
+  private String encode(String cartId, Map<Long, Integer> items, long issuedAt) {
+    int lines = Math.min(items.size(), MAX_LINES);
+    ByteBuffer buf = ByteBuffer.allocate(1 + 8 + ID_BYTES + 2 + lines * 12);
+    buf.put(VERSION).putLong(issuedAt).put(DECODER.decode(cartId.substring(ID_PREFIX.length()))).putShort((short) lines);
+    for (Map.Entry<Long, Integer> line : items.entrySet()) {
+      if (lines-- == 0) {
+        break;
+      }
+      buf.putLong(line.getKey()).putInt(line.getValue());
+    }
+    byte[] payload = buf.array();
+    return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+  }
+
+  private Contents decode(String value) {
+    int dot = value.indexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    byte[] payload;
+    byte[] signature;
+    try {
+      payload = DECODER.decode(value.substring(0, dot));
+      signature = DECODER.decode(value.substring(dot + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(sign(payload), signature)) {
+      return null;
+    }
+    ByteBuffer buf = ByteBuffer.wrap(payload);
+    if (buf.remaining() < 1 + 8 + ID_BYTES + 2 || buf.get() != VERSION) {
+      return null;
+    }
+    long issuedAt = buf.getLong();
+    if (System.currentTimeMillis() - issuedAt >= CartService.CART_TTL_MS) {
+      return null;
+    }
+    byte[] id = new byte[ID_BYTES];
+    buf.get(id);
+    int lines = Short.toUnsignedInt(buf.getShort());
+    if (buf.remaining() != lines * 12) {
+      return null;
+    }
+    Map<Long, Integer> items = new LinkedHashMap<>();
+    for (int i = 0; i < lines; i++) {
+      items.put(buf.getLong(), buf.getInt());
+    }
+    return new Contents(ID_PREFIX + ENCODER.encodeToString(id), items, issuedAt);
+  }
+
+  private byte[] sign(byte[] payload) {
+    return macs.get().doFinal(payload);
+  }
+
+  private Mac newMac() {
+    try {
+      Mac mac = Mac.getInstance(HMAC);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 unavailable", e);
+    }
+  }
+}
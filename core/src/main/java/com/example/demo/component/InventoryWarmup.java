@@ -0,0 +1,42 @@
+package com.example.demo.component;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Component;
+
+import com.example.demo.repository.ProductRepository;
+import com.example.demo.service.InventoryMemory;
+import com.example.demo.service.StockLeaseService;
+
+/**
+ * Fills {@link InventoryMemory} for every active product with one
+ * {@code (id, quantity)} projection before the web server starts, so the
+ * catalog read paths never have to seed stock per request.
+ */
+@Component
+public class InventoryWarmup {
+  private final ProductRepository productRepository;
+  private final InventoryMemory inventory;
+  private final StockLeaseService stockLeases;
+
+  public InventoryWarmup(ProductRepository productRepository, InventoryMemory inventory,
+      StockLeaseService stockLeases) {
+    this.productRepository = productRepository;
+    this.inventory = inventory;
+    this.stockLeases = stockLeases;
+  }
+
+  @PostConstruct
+  public void warmUp() {
+    // leased nodes own no units until they lease some; the pool view is loaded by StockLeaseService
+    if (stockLeases.isEnabled()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    var levels = productRepository.findActiveStockLevels();
+    // seedIfAbsent keeps anything the reservation journal already restored
+    levels.forEach(l -> inventory.seedIfAbsent(l.getId(), l.getQuantity()));
+    System.out.println("Inventory warm-up: " + levels.size() + " products in "
+        + (System.currentTimeMillis() - start) + " ms");
+  }
+}
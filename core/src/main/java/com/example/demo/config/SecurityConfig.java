@@ -61,6 +61,8 @@ public class SecurityConfig {
         .antMatchers(HttpMethod.POST, "/api/admin/**").hasRole("ADMIN")
         .antMatchers(HttpMethod.PUT, "/api/admin/**").hasRole("ADMIN")
         .antMatchers(HttpMethod.DELETE, "/api/admin/**").hasRole("ADMIN")
+        .antMatchers(HttpMethod.GET, "/api/admin/carts/analytics", "/api/admin/inventory/reconcile",
+            "/api/admin/inventory/hot").hasRole("ADMIN")
 
         // ✅ Everything else public
         .anyRequest().permitAll()
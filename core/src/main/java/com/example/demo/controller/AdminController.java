@@ -1,8 +1,11 @@
 package com.example.demo.controller;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.apache.catalina.connector.Response;
 import org.springframework.http.MediaType;
@@ -23,17 +26,61 @@ import com.example.demo.dto.DiscountCreateRequestDTO;
 import com.example.demo.model.Discount;
 import com.example.demo.model.Product;
 import com.example.demo.service.ProductService;
+import com.example.demo.service.CartAnalytics;
 import com.example.demo.service.DiscountService;
+import com.example.demo.service.InventoryMemory;
+import com.example.demo.service.InventoryReconciler;
 
 @RestController
 @RequestMapping("/api/admin")
 public class AdminController {
   private final ProductService productService;
   private final DiscountService discountService;
+  private final InventoryMemory inventory;
+  private final InventoryReconciler reconciler;
+  private final CartAnalytics cartAnalytics;
 
-  public AdminController(ProductService productService, DiscountService discountService) {
+  public AdminController(ProductService productService, DiscountService discountService,
+      InventoryMemory inventory, InventoryReconciler reconciler, CartAnalytics cartAnalytics) {
     this.productService = productService;
     this.discountService = discountService;
+    this.inventory = inventory;
+    this.reconciler = reconciler;
+    this.cartAnalytics = cartAnalytics;
+  }
+
+  @GetMapping("/carts/analytics")
+  public Map<String, Object> getCartAnalytics() {
+    return cartAnalytics.getStats();
+  }
+
+  @PostMapping("/carts/analytics")
+  public Map<String, Object> startCartAnalytics() {
+    cartAnalytics.start();
+    return cartAnalytics.getStats();
+  }
+
+  @GetMapping("/inventory/reconcile")
+  public Map<String, Object> getReconcileStats() {
+    return reconciler.getStats();
+  }
+
+  @PostMapping("/inventory/reconcile")
+  public Map<String, Object> reconcileNow() {
+    reconciler.reconcile();
+    return reconciler.getStats();
+  }
+
+  @PostMapping("/inventory/{id}/hot")
+  public ResponseEntity<Map<String, Object>> setHotProduct(@PathVariable Long id,
+      @RequestParam boolean enabled) {
+    inventory.setHot(id, enabled);
+    return ResponseEntity.ok(Map.of("id", id, "hot", enabled, "available", inventory.getAvailable(id)));
+  }
+
+  @GetMapping("/inventory/hot")
+  public Set<Long> getHotProducts() {
+    return inventory.getHotProducts();
   }
 
   @PatchMapping("/products/{id}/archive-toggle")
@@ -88,15 +135,10 @@ public class AdminController {
   @PostMapping(value = "/product/{productId}/uploadPicture", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
   public ResponseEntity<Product> uploadProductPicture(@PathVariable Long productId,
       @RequestParam("file") MultipartFile file) throws IOException {
-    Product product = productService.getProductById(productId).orElseThrow();
-
-    product.setPictureType(file.getContentType());
-
-    Product updated = productService.saveProductPicture(productId, file.getBytes(), file.getContentType());
-
-    updated.setPictureType(file.getContentType());
-    updated = productService.saveProduct(updated);
-    return ResponseEntity.ok(updated);
+    // multipart parts are spooled to disk by the container; read the part back as a stream
+    try (InputStream in = file.getInputStream()) {
+      return ResponseEntity.ok(productService.saveProductPicture(productId, in, file.getContentType()));
+    }
   }
 
   @PutMapping("/products/{id}")
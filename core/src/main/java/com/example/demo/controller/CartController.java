@@ -1,17 +1,25 @@
 package com.example.demo.controller;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import com.example.demo.component.CartCookie;
+import com.example.demo.dto.CartDeltaDTO;
 import com.example.demo.dto.CartItemsResponseDTO;
 import com.example.demo.service.CartService;
 
@@ -22,65 +30,138 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class CartController {
   private final CartService cartService;
+  private final CartCookie cartCookie;
+
+  /** more lines than any real cart; keeps one request from reserving the catalog */
+  private static final int MAX_BATCH_LINES = 100;
+
+  /**
+   * The key this visitor's cart lives under: the servlet session id, or the
+   * signed cookie's cart id in cookie mode. Reads pass {@code create=false}
+   * and get {@code null} for a visitor without one, so browse-only traffic
+   * allocates nothing.
+   * <p>
+   * Only endpoints that change the cart pass {@code restore=true}, which
+   * re-reserves a cookie's lines on a node that does not hold them; those
+   * endpoints then rewrite the cookie to what the cart really holds, so
+   * sold-out lines are not tried again. Elsewhere a cookie past half its
+   * life is reissued while its cart is still held here.
+   */
+  private String cartKey(HttpServletRequest request, HttpServletResponse response, boolean create,
+      boolean restore) {
+    if (!cartCookie.isEnabled()) {
+      HttpSession session = request.getSession(create);
+      return session == null ? null : session.getId();
+    }
+    CartCookie.Contents contents = cartCookie.read(request);
+    if (contents == null) {
+      return create ? cartCookie.newCartId() : null;
+    }
+    String sid = contents.cartId();
+    if (restore) {
+      cartService.restoreIfAbsent(sid, contents.items());
+    } else if (contents.dueForRenewal(System.currentTimeMillis())) {
+      Map<Long, Integer> items = cartService.getItems(sid);
+      if (!items.isEmpty()) {
+        cartCookie.write(response, sid, items);
+      }
+    }
+    return sid;
+  }
+
+  /** In cookie mode, sends the cart's lines back so the cookie stays current. */
+  private void saveCart(String sid, HttpServletResponse response) {
+    if (cartCookie.isEnabled()) {
+      cartCookie.write(response, sid, cartService.getItems(sid));
+    }
+  }
 
   @GetMapping("/{id}/qty")
-  public int getProductQuantity(@PathVariable Long id, HttpSession session) {
-    String sid = session.getId();
-    return cartService.getQty(sid, id);
+  public int getProductQuantity(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response) {
+    String sid = cartKey(request, response, false, false);
+    return sid == null ? 0 : cartService.getQty(sid, id);
   }
 
   @GetMapping
-  public List<CartItemsResponseDTO> getCart(HttpSession session) {
-    String sid = session.getId();
-    return cartService.getCartItemsWithProductData(sid);
+  public List<CartItemsResponseDTO> getCart(HttpServletRequest request, HttpServletResponse response) {
+    String sid = cartKey(request, response, false, false);
+    return sid == null ? List.of() : cartService.getCartItemsWithProductData(sid);
   }
 
   @PostMapping("/clear")
-  public void clearCart(@RequestParam(defaultValue = "true") boolean release, HttpSession session) {
-    String sid = session.getId();
+  public void clearCart(@RequestParam(defaultValue = "true") boolean release, HttpServletRequest request,
+      HttpServletResponse response) {
+    // never restores: after checkout the cookie still lists lines that are sold
+    String sid = cartKey(request, response, false, false);
+    if (sid == null) {
+      return;
+    }
     if (release) {
       cartService.releaseAll(sid);
     } else {
       cartService.clearOnly(sid);
     }
+    if (cartCookie.isEnabled()) {
+      cartCookie.clear(response);
+    }
   }
 
   @PostMapping("/{id}/add")
-  public int addProduct(@PathVariable Long id, @RequestParam int qty, HttpSession session) {
-    String sid = session.getId();
-    int added = 0;
-
-    for (int i = 0; i < qty; i++) {
-      if (cartService.addOne(sid, id)) {
-        added++;
-      } else {
-        break;
-      }
-
-    }
+  public int addProduct(@PathVariable Long id, @RequestParam int qty, HttpServletRequest request,
+      HttpServletResponse response) {
+    String sid = cartKey(request, response, true, true);
+    int added = cartService.addUpTo(sid, id, qty);
+    saveCart(sid, response);
     return added;
-
   }
 
   @PostMapping("/{id}/remove")
-  public int removeProduct(@PathVariable Long id, @RequestParam int qty, HttpSession session) {
-    String sid = session.getId();
-    int removed = 0;
-
-    for (int i = 0; i < qty; i++) {
-      if (cartService.removeOne(sid, id)) {
-        removed++;
-      } else {
-        break;
-      }
-
+  public int removeProduct(@PathVariable Long id, @RequestParam int qty, HttpServletRequest request,
+      HttpServletResponse response) {
+    String sid = cartKey(request, response, false, true);
+    if (sid == null) {
+      return 0;
     }
+    int removed = cartService.removeUpTo(sid, id, qty);
+    saveCart(sid, response);
     return removed;
   }
 
+  /**
+   * Applies several quantity changes at once and returns the resulting cart.
+   * Lines for the same product are summed first.
+   */
+  @PostMapping("/batch")
+  public List<CartItemsResponseDTO> applyBatch(@RequestBody List<CartDeltaDTO> changes, HttpServletRequest request,
+      HttpServletResponse response) {
+    if (changes == null || changes.size() > MAX_BATCH_LINES) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          "A batch needs between 0 and " + MAX_BATCH_LINES + " lines.");
+    }
+    Map<Long, Integer> deltas = new LinkedHashMap<>();
+    for (CartDeltaDTO change : changes) {
+      if (change.getProductId() == null) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "productId is required.");
+      }
+      try {
+        deltas.merge(change.getProductId(), change.getDelta(), Math::addExact);
+      } catch (ArithmeticException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "Changes to product " + change.getProductId() + " add up to more than a cart can hold.");
+      }
+    }
+    String sid = cartKey(request, response, true, true);
+    List<CartItemsResponseDTO> cart = cartService.applyBatch(sid, deltas);
+    saveCart(sid, response);
+    return cart;
+  }
+
   @PostMapping("/touch")
-  public void touchCart(HttpSession session) {
-    cartService.touch(session.getId());
+  public void touchCart(HttpServletRequest request, HttpServletResponse response) {
+    String sid = cartKey(request, response, false, false);
+    if (sid != null) {
+      cartService.touch(sid);
+    }
   }
 
 }
@@ -1,11 +1,16 @@
 package com.example.demo.controller;
 
+import java.util.List;
+import java.util.Map;
+
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.demo.service.InventoryMemory;
 import com.example.demo.service.ProductService;
+import com.example.demo.service.StockEventService;
 
 @RestController
 @RequestMapping("/api/inventory")
@@ -13,6 +18,7 @@ import com.example.demo.service.ProductService;
 public class InventoryController {
   private final InventoryMemory inventory;
   private final ProductService productService;
+  private final StockEventService stockEvents;
 
   @PostMapping("/{id}/set")
   public void set(@PathVariable long id, @RequestParam int qty) {
@@ -21,12 +27,25 @@ public class InventoryController {
 
   @GetMapping("/{id}/available")
   public int available(@PathVariable long id) {
-    ensureSeeded(id);
     return inventory.getAvailable(id);
   }
 
+  @GetMapping("/available")
+  public Map<Long, Integer> availableBatch(@RequestParam List<Long> ids) {
+    return inventory.getAvailable(ids);
+  }
+
+  @GetMapping("/available/all")
+  public Map<Long, Integer> availableAllActive() {
+    return inventory.getAvailable(productService.getActiveProductIds());
+  }
+
+  @GetMapping(value = "/stream", produces = "text/event-stream")
+  public SseEmitter stream() {
+    return stockEvents.subscribe();
+  }
 
-  @PostMapping("/{id}/reserve") 
+  @PostMapping("/{id}/reserve")
   public ResponseEntity<?> reserve(@PathVariable long id) {
     ensureSeeded(id);
     return inventory.reserveOne(id) ? ResponseEntity.ok().build()
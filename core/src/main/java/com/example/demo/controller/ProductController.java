@@ -1,8 +1,15 @@
 package com.example.demo.controller;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -10,10 +17,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.example.demo.model.Product;
 import com.example.demo.repository.ProductRepository;
+import com.example.demo.service.PictureDerivatives;
+import com.example.demo.service.ProductCatalog;
 import com.example.demo.service.ProductService;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -27,6 +37,10 @@ import org.springframework.web.bind.annotation.PathVariable;
 }, allowedHeaders = "*", allowCredentials = "true")
 public class ProductController {
 
+  /** for versioned picture URLs; CacheControl has no immutable() before Spring 6 */
+  private static final String IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue()
+      + ", immutable";
+
   private final ProductService productService;
 
   private final ProductRepository productRepository;
@@ -36,69 +50,125 @@ public class ProductController {
     this.productRepository = productRepository;
   }
 
+  /**
+   * Answers a catalog read with the snapshot's version as its ETag. A poll
+   * whose {@code If-None-Match} or {@code If-Modified-Since} still matches
+   * gets a 304 before the body is looked up. {@code no-cache} makes browsers
+   * revalidate every poll instead of guessing a freshness lifetime from
+   * {@code Last-Modified}.
+   */
+  private <T> ResponseEntity<T> fromCatalog(WebRequest request, Function<ProductCatalog.Snapshot, T> body) {
+    ProductCatalog.Snapshot catalog = productService.getCatalog();
+    if (request.checkNotModified(catalog.etag(), catalog.modifiedAt())) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(CacheControl.noCache()).build();
+    }
+    T found = body.apply(catalog);
+    if (found == null) {
+      return ResponseEntity.notFound().build();
+    }
+    return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(found);
+  }
+
   @CrossOrigin(origins = "http://localhost:3000")
   @GetMapping("/products")
-  public List<Product> getAllProducts(
+  public ResponseEntity<List<Product>> getAllProducts(
       @RequestParam(value = "category", required = false) String category,
       @RequestParam(value = "featured", required = false) Boolean featured,
-      @RequestParam(value = "newArrival", required = false) Boolean newArrival
+      @RequestParam(value = "newArrival", required = false) Boolean newArrival,
+      WebRequest request
     ) {
-    if (Boolean.TRUE.equals(featured) && category != null && !category.isBlank()) {
-      return productService.getFeaturedProductsByCategory(category);
-    }
-    if (Boolean.TRUE.equals(featured)) {
-      return productService.getFeaturedProducts();
-    }
-    if (Boolean.TRUE.equals(newArrival) && category != null && !category.isBlank()) {
-      return productService.getNewArrivalsByCategory(category);
-    }
-    if (Boolean.TRUE.equals(newArrival)) {
-      return productService.getNewArrivals();
-    }
-    if (category != null && !category.isBlank()) {
-      return productService.getProductCategory(category);
-    }
-    return productService.getAllProducts();
+    String cat = category != null && !category.isBlank() ? category : null;
+    return fromCatalog(request, catalog -> {
+      if (Boolean.TRUE.equals(featured)) {
+        return catalog.featured(cat);
+      }
+      if (Boolean.TRUE.equals(newArrival)) {
+        return catalog.newArrivals(cat);
+      }
+      return cat != null ? catalog.inCategory(cat) : catalog.active();
+    });
   }
 
   @GetMapping("/products/featured")
-  public List<Product> getFeatured() {
-    return productService.getFeaturedProducts();
+  public ResponseEntity<List<Product>> getFeatured(WebRequest request) {
+    return fromCatalog(request, catalog -> catalog.featured(null));
   }
 
   @GetMapping("/products/new-arrivals")
-  public List<Product> getNewArrivals() {
-    return productService.getNewArrivals();
+  public ResponseEntity<List<Product>> getNewArrivals(WebRequest request) {
+    return fromCatalog(request, catalog -> catalog.newArrivals(null));
   }
 
   @GetMapping("/products/category/{category}")
-  public ResponseEntity<List<Product>> getProductByCategory(@PathVariable String category) {
-    List<Product> products = productService.getProductCategory(category);
-
-    return ResponseEntity.ok(products);
+  public ResponseEntity<List<Product>> getProductByCategory(@PathVariable String category, WebRequest request) {
+    return fromCatalog(request, catalog -> catalog.inCategory(category));
   }
 
   @GetMapping("/products/{id}")
-  public ResponseEntity<Product> getProductById(@PathVariable Long id) {
-    Optional<Product> product = productService.getProductById(id);
-    return product.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+  public ResponseEntity<Product> getProductById(@PathVariable Long id, WebRequest request) {
+    return fromCatalog(request, catalog -> catalog.get(id).orElse(null));
   }
 
+  /**
+   * Streams a picture from the local picture store; {@code Range} requests get
+   * just the bytes asked for. The ETag is the product's
+   * {@code pictureVersion}, so a revalidation is answered with a 304 without
+   * opening the file. A URL that names the current version ({@code ?v=} or
+   * {@code ?version=}) never changes content and is cached as immutable.
+   * <p>
+   * {@code ?size=} asks for a resized copy at least that many pixels wide,
+   * from {@link PictureDerivatives#WIDTHS}; the copy's ETag names its width.
+   * Until the copy exists, or when the picture cannot be resized, the
+   * original is sent instead under the original's ETag, marked
+   * {@code no-cache}, so a revalidation once the copy is made fetches it.
+   */
   @GetMapping("/product/{id}/picture")
-  public ResponseEntity<byte[]> getProductPicture(@PathVariable Long id) {
-    Optional<Product> product = productService.getProductById(id);
-
-    if (product.isEmpty()) {
+  public ResponseEntity<Resource> getProductPicture(@PathVariable Long id,
+      @RequestParam(value = "v", required = false) Long v,
+      @RequestParam(value = "version", required = false) Long version,
+      @RequestParam(value = "size", required = false) Integer size,
+      WebRequest request) {
+    if (size != null && size <= 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be positive");
+    }
+    Optional<Product> found = productService.getCatalog().get(id);
+    if (found.isEmpty() || found.get().getPictureType() == null || found.get().getPictureVersion() == null) {
       return ResponseEntity.notFound().build();
     }
+    Product product = found.get();
+
+    Long asked = v != null ? v : version;
+    String cache = product.getPictureVersion().equals(asked)
+        ? IMMUTABLE
+        : CacheControl.noCache().getHeaderValue();
+    String tag = "picture-" + id + "-" + product.getPictureVersion();
+
+    Optional<Path> copy = size == null ? Optional.empty() : productService.getPictureDerivative(product, size);
+    if (copy.isPresent()) {
+      if (request.checkNotModified("\"" + tag + "-" + PictureDerivatives.widthFor(size) + "\"")) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).header(HttpHeaders.CACHE_CONTROL, cache).build();
+      }
+      String name = copy.get().getFileName().toString();
+      return ResponseEntity.ok()
+          .header(HttpHeaders.CACHE_CONTROL, cache)
+          .contentType(name.endsWith(".png") ? MediaType.IMAGE_PNG : MediaType.IMAGE_JPEG)
+          .body(new FileSystemResource(copy.get()));
+    }
+    if (size != null) {
+      // the original standing in for the copy must not be kept in its place
+      cache = CacheControl.noCache().getHeaderValue();
+    }
+    if (request.checkNotModified("\"" + tag + "\"")) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).header(HttpHeaders.CACHE_CONTROL, cache).build();
+    }
 
-    Product prod = product.get();
-    byte[] data = prod.getProductPictureFile();
-    if (data == null || data.length == 0) {
+    Optional<Path> file = productService.getPictureFile(product);
+    if (file.isEmpty()) {
       return ResponseEntity.notFound().build();
     }
-    MediaType mediaType = MediaType.parseMediaType(prod.getPictureType());
-    return ResponseEntity.ok().contentType(mediaType).body(data);
-
+    return ResponseEntity.ok()
+        .header(HttpHeaders.CACHE_CONTROL, cache)
+        .contentType(MediaType.parseMediaType(product.getPictureType()))
+        .body(new FileSystemResource(file.get()));
   }
 }
@@ -0,0 +1,13 @@
+package com.example.demo.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/** One line of a batch cart change: units to add (positive) or remove (negative). */
+@Getter
+@Setter
+public class CartDeltaDTO {
+  private Long productId;
+  private int delta;
+
+}
@@ -9,7 +9,7 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
-import org.hibernate.annotations.Type;
+import org.hibernate.annotations.DynamicUpdate;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -26,6 +26,8 @@ import lombok.Setter;
 @NoArgsConstructor
 @AllArgsConstructor
 @Table(name = "product")
+// only changed columns are written, so an edit never puts back a stale quantity
+@DynamicUpdate
 public class Product {
 
   @Id
@@ -34,11 +36,17 @@ public class Product {
 
   private boolean soldOut;
 
+  /** the picture bytes are in the {@code product_image} table */
   private String pictureType;
 
   @Column(name = "picture_version")
   private Long pictureVersion;
 
+  /** names the picture's file in {@code PictureStore}; null until the picture is first stored there */
+  @JsonIgnore
+  @Column(name = "picture_hash")
+  private String pictureHash;
+
   @Column(name = "material_cost", nullable = false, precision = 10, scale = 2)
   private BigDecimal materialCost = BigDecimal.ZERO;
 
@@ -71,9 +79,4 @@ public class Product {
   @Column(name = "product_archived", nullable = false)
   private boolean productArchived = false;
 
-  @JsonIgnore
-  @Type(type = "org.hibernate.type.BinaryType")
-  @Column(name = "product_picture_file")
-  private byte[] productPictureFile;
-
 }
@@ -0,0 +1,75 @@
+package com.example.demo.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.util.Optional;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The {@code product_image} table, read and written as streams so a picture
+ * never has to fit on the heap. Callers that change a row together with its
+ * product run both in one transaction.
+ */
+@Repository
+public class ProductImageRepository {
+
+  /** Consumes a picture's bytes while the row is being read. */
+  public interface StreamReader<T> {
+    T read(InputStream data) throws IOException;
+  }
+
+  private final JdbcTemplate jdbc;
+
+  public ProductImageRepository(JdbcTemplate jdbc) {
+    this.jdbc = jdbc;
+  }
+
+  /** Streams a product's picture to {@code reader}; empty when it has none. */
+  public <T> Optional<T> read(long productId, StreamReader<T> reader) {
+    return Optional.ofNullable(jdbc.query("select image_data from product_image where product_id = ?", rs -> {
+      if (!rs.next()) {
+        return null;
+      }
+      try (InputStream data = rs.getBinaryStream(1)) {
+        return reader.read(data);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, productId));
+  }
+
+  /** Replaces a product's picture with the contents of {@code file}, streamed from disk. */
+  public void save(long productId, String contentType, Path file) {
+    jdbc.update("delete from product_image where product_id = ?", productId);
+    jdbc.execute("insert into product_image (product_id, content_type, image_data) values (?, ?, ?)",
+        (PreparedStatement ps) -> {
+          try (InputStream data = Files.newInputStream(file)) {
+            ps.setLong(1, productId);
+            ps.setString(2, contentType);
+            ps.setBinaryStream(3, data, Files.size(file));
+            return ps.executeUpdate();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Gives a product the picture another product already has, copied inside
+   * the database.
+   *
+   * @return {@code false} if {@code fromProductId} has no picture row
+   */
+  public boolean copy(long fromProductId, long toProductId, String contentType) {
+    jdbc.update("delete from product_image where product_id = ?", toProductId);
+    return jdbc.update("insert into product_image (product_id, content_type, image_data) "
+        + "select ?, ?, image_data from product_image where product_id = ?",
+        toProductId, contentType, fromProductId) == 1;
+  }
+}
@@ -1,9 +1,14 @@
 package com.example.demo.repository;
 
+import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.example.demo.model.Product;
@@ -13,29 +18,120 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
 
   List<Product> findByCategoryIgnoreCaseAndProductArchivedFalseOrderByNameAsc(String category);
 
-  List<Product> findByFeaturedTrueAndProductArchivedFalseOrderByNameAsc();
+  List<Product> findBySoldOutTrueAndProductArchivedFalseOrderByNameAsc();
 
-  List<Product> findByNewArrivalTrueAndProductArchivedFalseOrderByNameAsc();
+List<Product> findByQuantityAndSoldOutFalseAndProductArchivedFalseOrderByNameAsc(Integer quantity);
 
-  List<Product> findBySoldOutTrueAndProductArchivedFalseOrderByNameAsc();
+  List<Product> findByProductArchivedTrueOrderByIdDesc();
+
+  /** Narrow (id, quantity) row for stock warm-up; never touches the picture column. */
+  interface StockLevel {
+    Long getId();
+
+    Integer getQuantity();
+  }
+
+  @Query("select p.id as id, p.quantity as quantity from Product p where p.productArchived = false")
+  List<StockLevel> findActiveStockLevels();
+
+  /** What a cart line shows; leaves out the description and picture columns. */
+  interface CartSummary {
+    Long getId();
+
+    String getName();
+
+    BigDecimal getPrice();
+
+    Long getPictureVersion();
+
+    Double getWeightOunces();
+
+    Double getLengthInches();
+
+    Double getWidthInches();
+
+    Double getHeightInches();
+  }
 
   @Query("""
-  SELECT p FROM Product p
-  WHERE LOWER(TRIM(p.category)) = LOWER(TRIM(:category))
-  AND p.productArchived = false
-  ORDER BY p.name ASC
-""")
-List<Product> findActiveByCategory(@org.springframework.data.repository.query.Param("category") String category);
+      select p.id as id, p.name as name, p.price as price, p.pictureVersion as pictureVersion, p.weightOunces as weightOunces,
+        p.lengthInches as lengthInches, p.widthInches as widthInches, p.heightInches as heightInches
+      from Product p where p.id in :ids
+      """)
+  List<CartSummary> findCartSummaries(@Param("ids") Collection<Long> ids);
 
-List<Product> findByQuantityAndSoldOutFalseAndProductArchivedFalseOrderByNameAsc(Integer quantity);
+  /** Every column the storefront lists, without the picture bytes. */
+  interface CatalogEntry {
+    Long getId();
 
-  List<Product> findByCategoryIgnoreCaseAndNewArrivalTrueAndProductArchivedFalseOrderByNameAsc(String category);
+    Boolean getSoldOut();
 
-  List<Product> findByCategoryIgnoreCaseAndFeaturedTrueAndProductArchivedFalseOrderByNameAsc(String category);
+    String getPictureType();
 
-  List<Product> findByProductArchivedFalseOrderByIdDesc();
+    Long getPictureVersion();
 
-  List<Product> findByProductArchivedTrueOrderByIdDesc();
+    String getPictureHash();
+
+    BigDecimal getMaterialCost();
+
+    Double getWeightOunces();
+
+    Double getLengthInches();
+
+    Double getWidthInches();
+
+    Double getHeightInches();
+
+    String getName();
+
+    String getDescription();
+
+    BigDecimal getPrice();
+
+    Integer getQuantity();
+
+    String getCategory();
+
+    Boolean getFeatured();
+
+    Boolean getNewArrival();
+
+    Boolean getProductArchived();
+  }
+
+  @Query("""
+      select p.id as id, p.soldOut as soldOut, p.pictureType as pictureType, p.pictureVersion as pictureVersion,
+        p.pictureHash as pictureHash, p.materialCost as materialCost, p.weightOunces as weightOunces, p.lengthInches as lengthInches,
+        p.widthInches as widthInches, p.heightInches as heightInches, p.name as name,
+        p.description as description, p.price as price, p.quantity as quantity, p.category as category,
+        p.featured as featured, p.newArrival as newArrival, p.productArchived as productArchived
+      from Product p
+      """)
+  List<CatalogEntry> findCatalogEntries();
+
+  /** A product's current picture, for telling whether an upload changes it. */
+  interface PictureInfo {
+    String getPictureHash();
+
+    String getPictureType();
+  }
+
+  @Query("select p.pictureHash as pictureHash, p.pictureType as pictureType from Product p where p.id = :id")
+  Optional<PictureInfo> findPictureInfo(@Param("id") Long id);
+
+  /** Another product showing the same picture, whose stored image can be copied; null if none. */
+  @Query("select min(p.id) from Product p where p.pictureHash = :hash and p.id <> :id")
+  Long findPictureDonor(@Param("hash") String hash, @Param("id") Long id);
+
+  /** Writes only the picture columns; the caller supplies the transaction. */
+  @Modifying
+  @Query("update Product p set p.pictureHash = :hash, p.pictureType = :type, p.pictureVersion = :version where p.id = :id")
+  int updatePicture(@Param("id") Long id, @Param("hash") String hash, @Param("type") String type,
+      @Param("version") Long version);
+
+  @Modifying
+  @Query("update Product p set p.pictureHash = :hash where p.id = :id")
+  int updatePictureHash(@Param("id") Long id, @Param("hash") String hash);
 
   @Query("select distinct p.category from Product p where p.productArchived = false order by p.category asc")
   List<String> findAllDistinctCategories();
@@ -0,0 +1,140 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Abandoned-cart analytics rolled up from the {@link CartService} event ring.
+ * <p>
+ * Carts only record events while someone is reading the stats:
+ * {@link #start()} arms the ring and starts a fresh window, and a window
+ * nobody has read for {@code app.cart.analytics.idle-ms} is disarmed again.
+ * Reading the stats never arms the ring by itself.
+ * The aggregator drains the ring every {@code app.cart.analytics.aggregate-ms}
+ * into per-product totals. Hold times run from when a cart was opened to when
+ * its units left it, weighted by units.
+ */
+@Service
+public class CartAnalytics {
+
+  private static final Logger log = LoggerFactory.getLogger(CartAnalytics.class);
+
+  private static final int RESERVED = 0;
+  private static final int RELEASED = 1;
+  private static final int EXPIRED = 2;
+  private static final int CHECKED_OUT = 3;
+  /** sum of units * ms held, over every unit that left a cart */
+  private static final int HELD_MS = 4;
+
+  private final CartService cartService;
+  private final CartEventRing events;
+  private final long idleMs;
+
+  /** productId -> counters above; aggregator only, under this */
+  private final Map<Long, long[]> products = new HashMap<>();
+
+  private long since;
+  private long eventCount;
+  private volatile long lastReadAt;
+  private volatile long lastRunAt;
+
+  public CartAnalytics(CartService cartService, @Value("${app.cart.analytics.idle-ms:600000}") long idleMs) {
+    this.cartService = cartService;
+    this.events = cartService.events();
+    this.idleMs = idleMs;
+  }
+
+  @Scheduled(fixedDelayString = "${app.cart.analytics.aggregate-ms:1000}")
+  public synchronized void aggregate() {
+    if (!events.armed) {
+      return;
+    }
+    eventCount += events.drain(this::add);
+    lastRunAt = System.currentTimeMillis();
+    if (lastRunAt - lastReadAt > idleMs) {
+      events.armed = false;
+      log.info("No cart analytics reads for {} ms; recording paused", idleMs);
+    }
+  }
+
+  private void add(byte type, long productId, int units, long heldMs) {
+    long[] c = products.computeIfAbsent(productId, id -> new long[5]);
+    switch (type) {
+      case CartEventRing.RESERVE -> c[RESERVED] += units;
+      case CartEventRing.RELEASE -> c[RELEASED] += units;
+      case CartEventRing.EXPIRE -> c[EXPIRED] += units;
+      case CartEventRing.CHECKOUT -> c[CHECKED_OUT] += units;
+      default -> {
+        return;
+      }
+    }
+    if (type != CartEventRing.RESERVE) {
+      c[HELD_MS] += units * Math.max(0, heldMs);
+    }
+  }
+
+  /** Arms the ring and starts a fresh window, dropping whatever the last one counted. */
+  public synchronized void start() {
+    long now = System.currentTimeMillis();
+    lastReadAt = now;
+    products.clear();
+    eventCount = 0;
+    since = now;
+    events.skipToEnd();
+    events.armed = true;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    lastReadAt = System.currentTimeMillis();
+    aggregate();
+
+    Map<Long, Integer> heldNow = cartService.getHeldUnits();
+    // units held since before the window still get a row
+    heldNow.keySet().forEach(id -> products.computeIfAbsent(id, k -> new long[5]));
+    long[] total = new long[5];
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (Map.Entry<Long, long[]> e : products.entrySet()) {
+      long[] c = e.getValue();
+      for (int i = 0; i < total.length; i++) {
+        total[i] += c[i];
+      }
+      Map<String, Object> row = row(c);
+      row.put("productId", e.getKey());
+      row.put("heldUnits", heldNow.getOrDefault(e.getKey(), 0));
+      rows.add(row);
+    }
+    rows.sort((a, b) -> Long.compare((long) b.get("expiredUnits"), (long) a.get("expiredUnits")));
+
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("recording", events.armed);
+    stats.put("recordingSince", since);
+    stats.put("lastRunAt", lastRunAt);
+    stats.put("events", eventCount);
+    stats.put("eventsDropped", events.dropped());
+    stats.put("heldUnits", heldNow.values().stream().mapToLong(Integer::longValue).sum());
+    stats.putAll(row(total));
+    stats.put("products", rows);
+    return stats;
+  }
+
+  private static Map<String, Object> row(long[] c) {
+    long ended = c[RELEASED] + c[EXPIRED] + c[CHECKED_OUT];
+    Map<String, Object> row = new LinkedHashMap<>();
+    row.put("reservedUnits", c[RESERVED]);
+    row.put("releasedUnits", c[RELEASED]);
+    row.put("expiredUnits", c[EXPIRED]);
+    row.put("checkedOutUnits", c[CHECKED_OUT]);
+    row.put("avgHoldMs", ended == 0 ? 0 : c[HELD_MS] / ended);
+    row.put("expiryRate", ended == 0 ? 0.0 : (double) c[EXPIRED] / ended);
+    return row;
+  }
+}
@@ -0,0 +1,144 @@
+package com.example.demo.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size ring of cart events, written by request threads and read by a
+ * single aggregator.
+ * <p>
+ * Events live in parallel primitive arrays, so publishing allocates nothing:
+ * a writer claims a sequence, marks its slot as being written, fills it and
+ * then marks the slot with the sequence. Only one writer holds a slot at a
+ * time, and one that finds a later event already there gives up. The reader
+ * copies a slot between two reads of its mark and keeps the copy only if
+ * both show the sequence it expected, the way a seqlock does. Nothing is recorded while the ring is not {@link #armed}. When
+ * the reader falls a full ring behind, the oldest events are overwritten and
+ * counted as dropped.
+ */
+final class CartEventRing {
+
+  static final byte RESERVE = 1;
+  static final byte RELEASE = 2;
+  static final byte EXPIRE = 3;
+  static final byte CHECKOUT = 4;
+
+  /** Receives drained events in publish order. */
+  interface Sink {
+    void accept(byte type, long productId, int units, long heldMs);
+  }
+
+  private static final VarHandle SEQ = MethodHandles.arrayElementVarHandle(long[].class);
+
+  /** set while someone reads the stats; writers check it before anything else */
+  volatile boolean armed;
+
+  private final int mask;
+  /**
+   * sequence + 1 of the event in each slot, negated while that event is being
+   * written; 0 while the slot has never been written
+   */
+  private final long[] seqs;
+  private final byte[] types;
+  private final long[] productIds;
+  private final int[] units;
+  private final long[] heldMs;
+
+  private final AtomicLong next = new AtomicLong();
+
+  /** reader only */
+  private long read;
+  private long dropped;
+
+  CartEventRing(int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+    }
+    this.mask = capacity - 1;
+    this.seqs = new long[capacity];
+    this.types = new byte[capacity];
+    this.productIds = new long[capacity];
+    this.units = new int[capacity];
+    this.heldMs = new long[capacity];
+  }
+
+  void publish(byte type, long productId, int qty, long held) {
+    long seq = next.getAndIncrement();
+    int i = (int) seq & mask;
+    // the CAS also keeps the mark ahead of every field store below
+    for (;;) {
+      long mark = (long) SEQ.getVolatile(seqs, i);
+      if (mark < 0) {
+        // a writer a lap behind or ahead is still filling the slot
+        Thread.onSpinWait();
+      } else if (mark > seq) {
+        // lapped before we got here; the reader counts this event as dropped
+        return;
+      } else if (SEQ.compareAndSet(seqs, i, mark, -(seq + 1))) {
+        break;
+      }
+    }
+    types[i] = type;
+    productIds[i] = productId;
+    units[i] = qty;
+    heldMs[i] = held;
+    SEQ.setRelease(seqs, i, seq + 1);
+  }
+
+  /**
+   * Hands every event published since the last drain to {@code sink}. An event
+   * still being written stops the drain; it is picked up next time. Events a
+   * writer lapped, before or while they were copied, are counted as dropped.
+   *
+   * @return events delivered
+   */
+  int drain(Sink sink) {
+    long end = next.get();
+    int capacity = mask + 1;
+    if (end - read > capacity) {
+      dropped += end - capacity - read;
+      read = end - capacity;
+    }
+    int delivered = 0;
+    while (read < end) {
+      int i = (int) read & mask;
+      long want = read + 1;
+      long seq = (long) SEQ.getAcquire(seqs, i);
+      if (Math.abs(seq) < want || seq == -want) {
+        // not written yet, or still being written
+        break;
+      }
+      if (seq != want) {
+        // a later event has this slot, or is being written to it
+        dropped++;
+        read++;
+        continue;
+      }
+      byte type = types[i];
+      long productId = productIds[i];
+      int qty = units[i];
+      long held = heldMs[i];
+      // the fields are read before the mark is checked again
+      VarHandle.loadLoadFence();
+      if ((long) SEQ.getOpaque(seqs, i) != seq) {
+        // a writer lapped us while we copied: the copy may be torn
+        dropped++;
+      } else {
+        sink.accept(type, productId, qty, held);
+        delivered++;
+      }
+      read++;
+    }
+    return delivered;
+  }
+
+  /** Skips everything published so far, as after a stretch nobody was reading. */
+  void skipToEnd() {
+    read = next.get();
+  }
+
+  long dropped() {
+    return dropped;
+  }
+}
@@ -0,0 +1,230 @@
+package com.example.demo.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One session's cart: a flat {@code long[]} of (productId, qty) pairs plus
+ * the last time the session was active.
+ * <p>
+ * Writers take the record's monitor and publish a fresh array; readers only
+ * read the current one. Once a record is emptied it is closed for good, so a
+ * writer that races its removal from the session map fails the add and opens
+ * a new record instead of holding units in one nobody can see.
+ * <p>
+ * Callers may hold the record's monitor around a change to keep their own
+ * side effects in the same order as the changes.
+ * <p>
+ * A {@link CartStore} may subclass this to keep its own bookkeeping; it hears
+ * about every write through {@link #onWrite()}.
+ */
+class CartRecord {
+
+  private static final long[] NONE = new long[0];
+
+  final String sessionId;
+
+  /** when the cart was opened; carts restored from elsewhere start at their last activity */
+  final long openedAt;
+
+  volatile long lastTouched;
+
+  /** productId at even indexes, its qty right after; replaced on write, never mutated */
+  private volatile long[] lines = NONE;
+
+  /** guarded by this */
+  private boolean closed;
+
+  /** guarded by this; set once someone has taken on filling an empty record */
+  private boolean claimed;
+
+  CartRecord(String sessionId, long lastTouched) {
+    this.sessionId = sessionId;
+    this.openedAt = lastTouched;
+    this.lastTouched = lastTouched;
+  }
+
+  private static int indexOf(long[] ls, long productId) {
+    for (int i = 0; i < ls.length; i += 2) {
+      if (ls[i] == productId) return i;
+    }
+    return -1;
+  }
+
+  int qty(long productId) {
+    long[] ls = lines;
+    int i = indexOf(ls, productId);
+    return i < 0 ? 0 : (int) ls[i + 1];
+  }
+
+  boolean isEmpty() {
+    return lines.length == 0;
+  }
+
+  /** @return the current pairs; callers must not modify the array */
+  long[] lines() {
+    return lines;
+  }
+
+  Map<Long, Integer> toMap() {
+    long[] ls = lines;
+    Map<Long, Integer> out = new HashMap<>(ls.length);
+    for (int i = 0; i < ls.length; i += 2) {
+      out.put(ls[i], (int) ls[i + 1]);
+    }
+    return out;
+  }
+
+  /** @return {@code false} if the record is closed and nothing was added */
+  synchronized boolean add(long productId, int qty) {
+    if (closed) {
+      return false;
+    }
+    long[] ls = lines;
+    int i = indexOf(ls, productId);
+    long[] next;
+    if (i >= 0) {
+      next = ls.clone();
+      next[i + 1] += qty;
+    } else {
+      next = Arrays.copyOf(ls, ls.length + 2);
+      next[ls.length] = productId;
+      next[ls.length + 1] = qty;
+    }
+    lines = next;
+    onWrite();
+    return true;
+  }
+
+  /**
+   * Removes up to {@code qty} units of a line; taking out the last line closes
+   * the record.
+   *
+   * @return units removed
+   */
+  synchronized int removeUpTo(long productId, int qty) {
+    long[] ls = lines;
+    int i = indexOf(ls, productId);
+    if (i < 0) {
+      return 0;
+    }
+    int have = (int) ls[i + 1];
+    int removed = Math.min(have, qty);
+    if (removed < have) {
+      long[] next = ls.clone();
+      next[i + 1] -= removed;
+      lines = next;
+    } else if (ls.length == 2) {
+      lines = NONE;
+      closed = true;
+    } else {
+      long[] next = new long[ls.length - 2];
+      System.arraycopy(ls, 0, next, 0, i);
+      System.arraycopy(ls, i + 2, next, i, ls.length - i - 2);
+      lines = next;
+    }
+    onWrite();
+    return removed;
+  }
+
+  /**
+   * Applies several line changes as one write, so readers see either none or
+   * all of them. {@code changes} holds (productId, delta) pairs; removals are
+   * clamped to what the line holds and the amounts actually removed are
+   * written back into the array. Emptying the cart closes the record.
+   *
+   * @return {@code false} if the record is closed and nothing was applied
+   */
+  synchronized boolean apply(long[] changes) {
+    if (closed) {
+      return false;
+    }
+    long[] next = lines;
+    for (int c = 0; c < changes.length; c += 2) {
+      long productId = changes[c];
+      long delta = changes[c + 1];
+      int i = indexOf(next, productId);
+      if (delta > 0) {
+        if (i >= 0) {
+          next = next == lines ? next.clone() : next;
+          next[i + 1] += delta;
+        } else {
+          next = Arrays.copyOf(next, next.length + 2);
+          next[next.length - 2] = productId;
+          next[next.length - 1] = delta;
+        }
+      } else if (delta < 0) {
+        long have = i < 0 ? 0 : next[i + 1];
+        long removed = Math.min(have, -delta);
+        changes[c + 1] = -removed;
+        if (removed == 0) {
+          continue;
+        }
+        if (removed < have) {
+          next = next == lines ? next.clone() : next;
+          next[i + 1] -= removed;
+        } else {
+          long[] copy = new long[next.length - 2];
+          System.arraycopy(next, 0, copy, 0, i);
+          System.arraycopy(next, i + 2, copy, i, next.length - i - 2);
+          next = copy;
+        }
+      }
+    }
+    if (next.length == 0) {
+      lines = NONE;
+      closed = true;
+    } else {
+      lines = next;
+    }
+    onWrite();
+    return true;
+  }
+
+  /** Closes the record and hands back the pairs it held. */
+  synchronized long[] close() {
+    closed = true;
+    long[] ls = lines;
+    lines = NONE;
+    onWrite();
+    return ls;
+  }
+
+  /** @return {@code true} for the first caller on an open record that holds nothing yet */
+  synchronized boolean claimFresh() {
+    if (claimed || closed || lines.length > 0) {
+      return false;
+    }
+    claimed = true;
+    return true;
+  }
+
+  /** Closes the record if it holds nothing. */
+  synchronized boolean closeIfEmpty() {
+    if (lines.length == 0) {
+      closed = true;
+    }
+    return closed;
+  }
+
+  synchronized boolean isOpen() {
+    return !closed;
+  }
+
+  /**
+   * Replaces the lines with a copy read from elsewhere, without counting as a
+   * write. An empty copy closes the record.
+   */
+  synchronized void load(long[] next) {
+    if (closed) {
+      return;
+    }
+    lines = next.length == 0 ? NONE : next;
+    closed = next.length == 0;
+  }
+
+  /** Runs under the record's lock after every change to its lines. */
+  void onWrite() {
+  }
+}
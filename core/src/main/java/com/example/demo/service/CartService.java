@@ -1,9 +1,16 @@
 package com.example.demo.service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -11,7 +18,8 @@ import com.example.demo.dto.CartItemsResponseDTO;
 import com.example.demo.repository.ProductRepository;
 
 /**
- * Session-scoped cart storage backed by in-memory maps.
+ * Session-scoped cart storage backed by a {@link CartStore}; in memory unless
+ * {@code app.cart.store=jdbc}.
  * <p>
  * Responsibilities:
  * <ul>
@@ -19,8 +27,8 @@ import com.example.demo.repository.ProductRepository;
  * <li>Keep per-session product quantities.</li>
  * <li>Defer un-reserving/removal to other operations we’ll add next.</li>
  * </ul>
- * Thread-safety: uses ConcurrentHashMap for both the session map and each
- * session's cart map.
+ * Thread-safety: the store maps sessions concurrently; each one's cart is a
+ * {@link CartRecord} with its own lock for writes and lock-free reads.
  */
 @Service
 public class CartService {
@@ -32,41 +40,216 @@ public class CartService {
 
   private final ProductRepository productRepository;
 
-  /** sessionId -> (productId -> qty) */
-  private final Map<String, Map<Long, Integer>> carts = new ConcurrentHashMap<>();
+  private final ReservationJournal journal;
+
+  /** sessionId -> cart; only sessions holding something have an entry */
+  private final CartStore carts;
 
-  /** map for activity timestamps */
-  private final Map<String, Long> lastTouched = new ConcurrentHashMap<>();
+  /** productId -> what its cart lines show; the catalog is small, so this is never trimmed */
+  private final Map<Long, ProductRepository.CartSummary> summaries = new ConcurrentHashMap<>();
 
   /** cart reserve time */
-  private static final long CART_TTL_MS = 20 * 60 * 1000;
+  public static final long CART_TTL_MS = 20 * 60 * 1000;
+
+  /** expiry accuracy */
+  private static final long EXPIRY_TICK_MS = 250;
+
+  /** lastTouched resolution; far below the TTL, so expiry sees activity to within a second */
+  private static final long TOUCH_GRANULARITY_MS = 1_000;
 
-  /** scheduled activity sweep */
-  @Scheduled(fixedRate = 60_000)
+  /** every live cart is in the wheel exactly once, from when it is opened */
+  private final ExpiryWheel<CartRecord> expiry = new ExpiryWheel<>(EXPIRY_TICK_MS, CART_TTL_MS,
+      System.currentTimeMillis());
+
+  /** reserve/release/expire/checkout stream for {@link CartAnalytics}; idle until someone reads it */
+  private final CartEventRing events = new CartEventRing(1 << 14);
+
+  /**
+   * Scheduled activity sweep. Only carts whose deadline has come up are
+   * visited; ones touched since they were scheduled are pushed back to their
+   * new deadline instead of being released.
+   */
+  @Scheduled(fixedDelay = EXPIRY_TICK_MS)
   public void expireAbandonedCarts() {
-    long now = System.currentTimeMillis();
-    for (Map.Entry<String, Long> e : lastTouched.entrySet()) {
-      String sid = e.getKey();
-      long last = e.getValue();
-      if (now - last > CART_TTL_MS) {
-        releaseAll(sid);
+    expireAbandonedCarts(System.currentTimeMillis());
+  }
+
+  /** Runs the sweep as if the clock read {@code now}; used by benchmarks and tests. */
+  public void expireAbandonedCarts(long now) {
+    for (CartRecord cart : expiry.advance(now)) {
+      if (carts.cached(cart.sessionId) != cart) {
+        // released or replaced since it was scheduled
+        continue;
+      }
+      long last = cart.lastTouched;
+      if (now - last < CART_TTL_MS) {
+        expiry.schedule(cart, last + CART_TTL_MS);
+        continue;
+      }
+      if (carts.claimExpiry(cart, now - CART_TTL_MS)) {
+        release(cart, CartEventRing.EXPIRE, now);
+      }
+    }
+  }
+
+  /*
+   * Every cart change and its journal record are made under the record's
+   * lock, so the journal sees them in the order the cart did. A clear is
+   * journaled before the closed record leaves the store, so it is always
+   * ahead of the first record of the session's next cart. Inventory is
+   * reserved before and released after the lock; the units in between
+   * belong to exactly one cart line or to this thread.
+   */
+
+  /** Puts already-reserved units into the session's cart. */
+  private void hold(String sessionId, long productId, int qty) {
+    while (true) {
+      CartRecord cart = carts.getOrOpen(sessionId, CoarseClock.now());
+      synchronized (cart) {
+        if (cart.add(productId, qty)) {
+          journal.delta(sessionId, productId, qty);
+          carts.written(cart);
+          emit(CartEventRing.RESERVE, cart, productId, qty, 0);
+          return;
+        }
+      }
+      // emptied and closed under us; drop it and open a fresh one
+      carts.remove(sessionId, cart);
+    }
+  }
+
+  /** @return units taken out of the session's cart, not yet given back to inventory */
+  private int unhold(String sessionId, long productId, int qty) {
+    CartRecord cart = carts.get(sessionId);
+    if (cart == null || qty <= 0) {
+      return 0;
+    }
+    int removed;
+    synchronized (cart) {
+      removed = cart.removeUpTo(productId, qty);
+      if (removed > 0) {
+        journal.delta(sessionId, productId, -removed);
+        carts.written(cart);
       }
     }
+    if (removed > 0) {
+      emit(CartEventRing.RELEASE, cart, productId, removed, CoarseClock.now());
+    }
+    // closing first keeps a concurrent add from landing in a record we drop
+    if (cart.closeIfEmpty()) {
+      carts.remove(sessionId, cart);
+    }
+    return removed;
+  }
+
+  /** @param type {@link CartEventRing#RELEASE} or {@link CartEventRing#EXPIRE} */
+  private void release(CartRecord cart, byte type, long now) {
+    long[] lines;
+    synchronized (cart) {
+      lines = cart.close();
+      journal.clear(cart.sessionId);
+    }
+    carts.remove(cart.sessionId, cart);
+    for (int i = 0; i < lines.length; i += 2) {
+      inventory.release(lines[i], (int) lines[i + 1]);
+      emit(type, cart, lines[i], lines[i + 1], now);
+    }
   }
 
+  /** Checkout: the cart goes away but its units stay taken, now by the order. */
   public void clearOnly(String sid) {
-    carts.remove(sid);
-    lastTouched.remove(sid);
+    CartRecord cart = carts.get(sid);
+    if (cart == null) {
+      journal.clear(sid);
+      return;
+    }
+    long[] lines;
+    synchronized (cart) {
+      lines = cart.close();
+      journal.clear(sid);
+    }
+    carts.remove(sid, cart);
+    long now = CoarseClock.now();
+    for (int i = 0; i < lines.length; i += 2) {
+      emit(CartEventRing.CHECKOUT, cart, lines[i], lines[i + 1], now);
+    }
+  }
+
+  /**
+   * Records a cart event when analytics are being read; otherwise costs one
+   * volatile read. {@code now} is ignored for reservations, which have no hold
+   * time yet.
+   */
+  private void emit(byte type, CartRecord cart, long productId, long units, long now) {
+    if (events.armed) {
+      events.publish(type, productId, (int) units, type == CartEventRing.RESERVE ? 0 : now - cart.openedAt);
+    }
+  }
+
+  CartEventRing events() {
+    return events;
   }
 
+  /**
+   * Marks the session active. The timestamp comes from {@link CoarseClock} and
+   * only moves once it is {@link #TOUCH_GRANULARITY_MS} stale, so touching a
+   * cart that was just used writes nothing.
+   */
   public void touch(String sessionId) {
-    lastTouched.put(sessionId, System.currentTimeMillis());
+    CartRecord cart = carts.get(sessionId);
+    if (cart != null) {
+      long now = CoarseClock.now();
+      if (now - cart.lastTouched >= TOUCH_GRANULARITY_MS) {
+        cart.lastTouched = now;
+        carts.touched(cart);
+      }
+    }
   }
 
   /** Constructs the cart service with the shared inventory bean */
-  public CartService(InventoryMemory inventory, ProductRepository productRepository) {
+  @Autowired
+  public CartService(InventoryMemory inventory, ProductRepository productRepository,
+      ReservationJournal journal, CartStore carts) {
     this.inventory = inventory;
     this.productRepository = productRepository;
+    this.journal = journal;
+    this.carts = carts;
+    carts.setOpenListener(cart -> expiry.schedule(cart, cart.lastTouched + CART_TTL_MS));
+  }
+
+  /** Keeps carts in this JVM only. */
+  public CartService(InventoryMemory inventory, ProductRepository productRepository,
+      ReservationJournal journal) {
+    this(inventory, productRepository, journal, new InMemoryCartStore());
+  }
+
+  /**
+   * Rebuilds carts from the reservation journal and takes their held units
+   * back out of the reseeded stock, so a restart does not oversell. Holds that
+   * outlived the TTL while we were down are dropped.
+   */
+  @PostConstruct
+  public void restoreFromJournal() throws IOException {
+    Map<String, ReservationJournal.SessionHolds> holds = journal.replay();
+    if (holds.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Map<Long, Integer> held = new HashMap<>();
+    holds.forEach((sid, h) -> {
+      if (now - h.lastTouched >= CART_TTL_MS || h.items.isEmpty()) {
+        journal.clear(sid);
+        return;
+      }
+      CartRecord cart = carts.getOrOpen(sid, h.lastTouched);
+      h.items.forEach((productId, qty) -> {
+        cart.add(productId, qty);
+        held.merge(productId, qty, Integer::sum);
+      });
+      carts.written(cart);
+    });
+    productRepository.findAllById(held.keySet()).forEach(p -> inventory.setStock(p.getId(),
+        Math.max(0, p.getQuantity() - held.get(p.getId()))));
   }
 
   /**
@@ -91,106 +274,239 @@ public class CartService {
       return false;
     }
 
-    // 2) Get or create this session's cart map.
-    Map<Long, Integer> cart = carts.computeIfAbsent(sessionId, sid -> new ConcurrentHashMap<>());
-
-    // 3) Increase the quantity for this product by 1 (insert if missing).
-    cart.merge(productId, 1, Integer::sum);
-
-    // 4) Success.
+    // 2) Add the unit to this session's cart, opening one if needed.
+    hold(sessionId, productId, 1);
     return true;
   }
 
   public boolean removeOne(String sessionId, long productId) {
     touch(sessionId);
-    Map<Long, Integer> cart = carts.get(sessionId);
-    if (cart == null || !cart.containsKey(productId)) {
+    if (unhold(sessionId, productId, 1) == 0) {
       return false;
     }
-    int currentQty = cart.get(productId);
-    if (currentQty <= 0) {
-      return false;
+    inventory.unreserveOne(productId);
+    return true;
+  }
+
+  /**
+   * Adds up to {@code qty} units of {@code productId} with a single inventory
+   * reservation; a partial add happens when less stock is left.
+   *
+   * @return units actually added
+   */
+  public int addUpTo(String sessionId, long productId, int qty) {
+    if (qty <= 0) {
+      return 0;
     }
-    if (currentQty == 1) {
-      cart.remove(productId);
-    } else {
-      cart.put(productId, currentQty - 1);
+    touch(sessionId);
+    int reserved = inventory.reserveUpTo(productId, qty);
+    if (reserved == 0) {
+      return 0;
     }
-    inventory.unreserveOne(productId);
-    if (cart.isEmpty()) {
-      carts.remove(sessionId);
+    hold(sessionId, productId, reserved);
+    return reserved;
+  }
+
+  /**
+   * Removes up to {@code qty} units of {@code productId} and releases them to
+   * inventory in one call.
+   *
+   * @return units actually removed
+   */
+  public int removeUpTo(String sessionId, long productId, int qty) {
+    touch(sessionId);
+    int removed = unhold(sessionId, productId, qty);
+    if (removed > 0) {
+      inventory.release(productId, removed);
+    }
+    return removed;
+  }
+
+  /**
+   * Re-reserves a cart the visitor carried in from elsewhere, such as a signed
+   * cookie, unless this node already holds a cart under that key. Lines are
+   * reserved up to the stock left, like {@link #addUpTo}.
+   */
+  public void restoreIfAbsent(String sessionId, Map<Long, Integer> items) {
+    if (items.isEmpty() || carts.get(sessionId) != null) {
+      return;
+    }
+    CartRecord cart = carts.getOrOpen(sessionId, CoarseClock.now());
+    if (!cart.claimFresh()) {
+      // another request got here first
+      return;
+    }
+    items.forEach((productId, qty) -> {
+      int reserved = qty > 0 ? inventory.reserveUpTo(productId, qty) : 0;
+      if (reserved > 0) {
+        hold(sessionId, productId, reserved);
+      }
+    });
+    if (cart.closeIfEmpty()) {
+      carts.remove(sessionId, cart);
+    }
+  }
+
+  /**
+   * Applies a set of quantity changes in one pass: additions are reserved up
+   * to the stock left, removals are clamped to what the cart holds, and the
+   * cart takes all of them in a single write.
+   *
+   * @param deltas productId -> units to add (positive) or remove (negative)
+   * @return the resulting cart with product data
+   */
+  public List<CartItemsResponseDTO> applyBatch(String sessionId, Map<Long, Integer> deltas) {
+    touch(sessionId);
+    long[] changes = new long[deltas.size() * 2];
+    int n = 0;
+    boolean adds = false;
+    for (Map.Entry<Long, Integer> d : deltas.entrySet()) {
+      int delta = d.getValue();
+      if (delta > 0) {
+        delta = inventory.reserveUpTo(d.getKey(), delta);
+        adds |= delta > 0;
+      }
+      if (delta != 0) {
+        changes[n++] = d.getKey();
+        changes[n++] = delta;
+      }
+    }
+    if (n > 0) {
+      applyToCart(sessionId, Arrays.copyOf(changes, n), adds);
+    }
+    return getCartItemsWithProductData(sessionId);
+  }
+
+  private void applyToCart(String sessionId, long[] changes, boolean adds) {
+    CartRecord cart;
+    while (true) {
+      cart = adds
+          ? carts.getOrOpen(sessionId, CoarseClock.now())
+          : carts.get(sessionId);
+      if (cart == null) {
+        return;
+      }
+      synchronized (cart) {
+        if (cart.apply(changes)) {
+          for (int i = 0; i < changes.length; i += 2) {
+            journal.delta(sessionId, changes[i], (int) changes[i + 1]);
+          }
+          carts.written(cart);
+          break;
+        }
+      }
+      carts.remove(sessionId, cart);
+      if (!adds) {
+        // it was emptied under us; nothing left to remove
+        return;
+      }
+    }
+    long now = CoarseClock.now();
+    for (int i = 0; i < changes.length; i += 2) {
+      if (changes[i + 1] < 0) {
+        inventory.release(changes[i], (int) -changes[i + 1]);
+        emit(CartEventRing.RELEASE, cart, changes[i], -changes[i + 1], now);
+      } else if (changes[i + 1] > 0) {
+        emit(CartEventRing.RESERVE, cart, changes[i], changes[i + 1], now);
+      }
+    }
+    if (cart.closeIfEmpty()) {
+      carts.remove(sessionId, cart);
     }
-    return true;
   }
 
   public int getQty(String sessionId, long productId) {
     touch(sessionId);
-    Map<Long, Integer> cart = carts.get(sessionId);
-    if (cart == null) {
-      return 0;
+    CartRecord cart = carts.get(sessionId);
+    return cart == null ? 0 : cart.qty(productId);
+  }
+
+  /** @return units of each product currently held across all carts */
+  public Map<Long, Integer> getHeldUnits() {
+    Map<Long, Integer> held = new HashMap<>();
+    for (CartRecord cart : carts.local()) {
+      long[] lines = cart.lines();
+      for (int i = 0; i < lines.length; i += 2) {
+        held.merge(lines[i], (int) lines[i + 1], Integer::sum);
+      }
     }
-    return cart.getOrDefault(productId, 0);
+    return held;
+  }
+
+  public int getHeldUnits(long productId) {
+    int held = 0;
+    for (CartRecord cart : carts.local()) {
+      held += cart.qty(productId);
+    }
+    return held;
   }
 
   public Map<Long, Integer> getItems(String sessionId) {
     touch(sessionId);
-    Map<Long, Integer> cart = carts.get(sessionId);
+    CartRecord cart = carts.get(sessionId);
     if (cart == null || cart.isEmpty()) {
       return Map.of();
     }
-    return java.util.Collections.unmodifiableMap(new java.util.HashMap<>(cart));
+    return java.util.Collections.unmodifiableMap(cart.toMap());
   }
 
   public void releaseAll(String sessionId) {
-    Map<Long, Integer> cart = carts.get(sessionId);
-    if (cart == null || cart.isEmpty())
+    CartRecord cart = carts.get(sessionId);
+    if (cart == null) {
+      journal.clear(sessionId);
       return;
-
-    for (Map.Entry<Long, Integer> cartEntry : cart.entrySet()) {
-      long productId = cartEntry.getKey();
-      int qty = cartEntry.getValue();
-      for (int i = 0; i < qty; i++) {
-        inventory.unreserveOne(productId);
-      }
     }
-    carts.remove(sessionId);
-    lastTouched.remove(sessionId);
+    release(cart, CartEventRing.RELEASE, CoarseClock.now());
+  }
+
+  /** Drops the cached cart summary of a product that was edited or deleted. */
+  public void forgetProduct(long productId) {
+    summaries.remove(productId);
   }
 
+  /**
+   * Cart lines with the product data the cart page shows. Summaries come from
+   * {@link #summaries}; the ones not cached yet are loaded in one narrow query.
+   */
   public List<CartItemsResponseDTO> getCartItemsWithProductData(String sid) {
-    Map<Long, Integer> cart = carts.get(sid);
+    CartRecord cart = carts.get(sid);
 
     if (cart == null || cart.isEmpty()) {
       return List.of();
     }
 
-    return cart.entrySet().stream().map(entry -> {
-      Long productId = entry.getKey();
-      Integer qty = entry.getValue();
-
-      var product = productRepository.findById(productId).orElse(null);
+    long[] lines = cart.lines();
+    List<Long> missing = new ArrayList<>();
+    for (int i = 0; i < lines.length; i += 2) {
+      if (!summaries.containsKey(lines[i])) {
+        missing.add(lines[i]);
+      }
+    }
+    if (!missing.isEmpty()) {
+      productRepository.findCartSummaries(missing).forEach(p -> summaries.put(p.getId(), p));
+    }
 
+    List<CartItemsResponseDTO> items = new ArrayList<>(lines.length / 2);
+    for (int i = 0; i < lines.length; i += 2) {
+      var product = summaries.get(lines[i]);
+      // deleted since it was added
       if (product == null)
-        return null;
+        continue;
 
-      String imageUrl = "/api/product/" + product.getId() + "/picture";
+      String imageUrl = "/api/product/" + product.getId() + "/picture?v=" + product.getPictureVersion() + "&size=200";
 
-      return new CartItemsResponseDTO(
+      items.add(new CartItemsResponseDTO(
           product.getId(),
           product.getName(),
           product.getPrice(),
           imageUrl,
-          qty,
+          (int) lines[i + 1],
           product.getWeightOunces(),
-  product.getLengthInches(),
-  product.getWidthInches(),
-  product.getHeightInches()
-          
-        );
-    })
-
-        .filter(java.util.Objects::nonNull)
-        .toList();
+          product.getLengthInches(),
+          product.getWidthInches(),
+          product.getHeightInches()));
+    }
+    return items;
   }
 
 }
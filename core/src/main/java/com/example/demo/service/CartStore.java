@@ -0,0 +1,51 @@
+package com.example.demo.service;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link CartService} keeps its {@link CartRecord}s.
+ * <p>
+ * The service does all cart and inventory bookkeeping itself and tells the
+ * store about each change through {@link #written} and {@link #touched}. A
+ * store decides where the records live and who else can see them. Reads
+ * through {@link #get} are on every cart request, so an implementation
+ * backed by something remote must answer them from memory.
+ */
+interface CartStore {
+
+  /** Registers the callback run for each record the store creates, opened here or loaded. */
+  void setOpenListener(Consumer<CartRecord> listener);
+
+  /** @return the session's cart, or {@code null} when it has none */
+  CartRecord get(String sessionId);
+
+  /** @return the session's cart as this node holds it, never loading it from elsewhere */
+  CartRecord cached(String sessionId);
+
+  /** @return the session's cart, opening an empty one last touched at {@code now} if needed */
+  CartRecord getOrOpen(String sessionId, long now);
+
+  /** Drops the session's entry, but only while it still maps to {@code cart}. */
+  void remove(String sessionId, CartRecord cart);
+
+  /** @return the carts this node holds */
+  Collection<CartRecord> local();
+
+  /** Called after the lines of {@code cart} changed. */
+  default void written(CartRecord cart) {
+  }
+
+  /** Called after {@code cart.lastTouched} moved. */
+  default void touched(CartRecord cart) {
+  }
+
+  /**
+   * Called before an abandoned cart is released. A shared store returns
+   * {@code false} when another node has seen the session since
+   * {@code cutoff} or already released it; the caller then leaves it alone.
+   */
+  default boolean claimExpiry(CartRecord cart, long cutoff) {
+    return true;
+  }
+}
@@ -0,0 +1,35 @@
+package com.example.demo.service;
+
+/**
+ * Wall clock refreshed by a daemon thread every {@link #RESOLUTION_MS}, for
+ * hot paths that only need to know roughly what time it is. Reading it is a
+ * single volatile load.
+ */
+final class CoarseClock {
+
+  static final long RESOLUTION_MS = 50;
+
+  private static volatile long now = System.currentTimeMillis();
+
+  static {
+    Thread ticker = new Thread(() -> {
+      while (true) {
+        now = System.currentTimeMillis();
+        try {
+          Thread.sleep(RESOLUTION_MS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }, "coarse-clock");
+    ticker.setDaemon(true);
+    ticker.start();
+  }
+
+  private CoarseClock() {
+  }
+
+  static long now() {
+    return now;
+  }
+}
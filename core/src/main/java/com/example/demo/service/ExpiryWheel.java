@@ -0,0 +1,90 @@
+package com.example.demo.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel for deadlines that are at most {@code spanMs} away.
+ * <p>
+ * Any thread may {@link #schedule}; only the sweeping thread calls
+ * {@link #advance}, so the buckets themselves need no locking. Each advance
+ * visits only the buckets whose tick has fully elapsed, which keeps the
+ * sweep proportional to the number of due entries rather than to the number
+ * of scheduled ones.
+ */
+final class ExpiryWheel<K> {
+
+  private record Entry<K>(K key, long deadlineMs) {
+  }
+
+  private final long tickMs;
+  private final int mask;
+  private final List<ArrayDeque<Entry<K>>> buckets;
+  private final ConcurrentLinkedQueue<Entry<K>> incoming = new ConcurrentLinkedQueue<>();
+
+  /** next tick to sweep; owned by the advancing thread */
+  private long cursor;
+
+  /** entries taken out of a bucket by {@link #advance} so far; the sweep's whole cost */
+  private long visited;
+
+  ExpiryWheel(long tickMs, long spanMs, long nowMs) {
+    this.tickMs = tickMs;
+    int size = Integer.highestOneBit((int) (spanMs / tickMs) + 2) << 1;
+    this.mask = size - 1;
+    this.buckets = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      buckets.add(null);
+    }
+    this.cursor = nowMs / tickMs;
+  }
+
+  void schedule(K key, long deadlineMs) {
+    incoming.offer(new Entry<>(key, deadlineMs));
+  }
+
+  /** @return keys whose deadline has passed, in deadline-tick order */
+  List<K> advance(long nowMs) {
+    Entry<K> e;
+    while ((e = incoming.poll()) != null) {
+      place(e);
+    }
+
+    List<K> due = new ArrayList<>();
+    long last = nowMs / tickMs;
+    for (; cursor < last; cursor++) {
+      ArrayDeque<Entry<K>> bucket = buckets.get((int) (cursor & mask));
+      if (bucket == null || bucket.isEmpty()) {
+        continue;
+      }
+      for (int n = bucket.size(); n > 0; n--) {
+        Entry<K> entry = bucket.poll();
+        visited++;
+        if (entry.deadlineMs() <= nowMs) {
+          due.add(entry.key());
+        } else {
+          // beyond one revolution; stays for the next pass
+          bucket.add(entry);
+        }
+      }
+    }
+    return due;
+  }
+
+  long visited() {
+    return visited;
+  }
+
+  private void place(Entry<K> e) {
+    long tick = Math.max(e.deadlineMs() / tickMs, cursor);
+    int slot = (int) (tick & mask);
+    ArrayDeque<Entry<K>> bucket = buckets.get(slot);
+    if (bucket == null) {
+      bucket = new ArrayDeque<>();
+      buckets.set(slot, bucket);
+    }
+    bucket.add(e);
+  }
+}
@@ -0,0 +1,56 @@
+package com.example.demo.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/** Default {@link CartStore}: carts live only in this JVM. */
+@Component
+@ConditionalOnProperty(name = "app.cart.store", havingValue = "memory", matchIfMissing = true)
+class InMemoryCartStore implements CartStore {
+
+  /** sessionId -> cart; only sessions holding something have an entry */
+  private final Map<String, CartRecord> carts = new ConcurrentHashMap<>();
+
+  private Consumer<CartRecord> openListener = cart -> {
+  };
+
+  @Override
+  public void setOpenListener(Consumer<CartRecord> listener) {
+    this.openListener = listener;
+  }
+
+  @Override
+  public CartRecord get(String sessionId) {
+    return carts.get(sessionId);
+  }
+
+  @Override
+  public CartRecord cached(String sessionId) {
+    return carts.get(sessionId);
+  }
+
+  @Override
+  public CartRecord getOrOpen(String sessionId, long now) {
+    return carts.computeIfAbsent(sessionId, sid -> {
+      CartRecord cart = new CartRecord(sid, now);
+      openListener.accept(cart);
+      return cart;
+    });
+  }
+
+  @Override
+  public void remove(String sessionId, CartRecord cart) {
+    carts.remove(sessionId, cart);
+  }
+
+  @Override
+  public Collection<CartRecord> local() {
+    return Collections.unmodifiableCollection(carts.values());
+  }
+}
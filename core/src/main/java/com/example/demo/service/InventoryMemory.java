@@ -1,41 +1,243 @@
 package com.example.demo.service;
 
 import org.springframework.stereotype.Service;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 
 @Service
 public class InventoryMemory {
-  private final ConcurrentHashMap<Long, AtomicInteger> stock = new ConcurrentHashMap<>();
 
-  public void setStock(long id, int qty) {
-    stock.put(id, new AtomicInteger(qty));
+  /**
+   * Source of extra units when the local counter runs short, used in clustered
+   * mode where each node only owns the units it has leased.
+   */
+  public interface StockRefill {
+    /** @return units handed to this node, between 0 and at least {@code wanted} */
+    int lease(long id, int wanted);
+
+    /** @return units still in the shared pool as last seen by this node */
+    int pooled(long id);
+  }
+
+  /** productId -> available units, see {@link StockTable} */
+  private final StockTable stock = new StockTable();
+
+  /** Called with the product id after a counter changes; must not block. */
+  private volatile LongConsumer[] changeListeners = new LongConsumer[0];
+
+  /** null in single-node mode, where the counters are seeded straight from the product table */
+  private volatile StockRefill refill;
+
+  /**
+   * Serializes a refill from the lease with a drain of the same product, so a
+   * drain never takes units a reserving thread leased and has not taken yet.
+   * Only the lease path and drains use them; local reservations stay lock-free.
+   */
+  private final Object[] refillLocks = newLocks(64);
+
+  private static Object[] newLocks(int n) {
+    Object[] locks = new Object[n];
+    for (int i = 0; i < n; i++) {
+      locks[i] = new Object();
+    }
+    return locks;
+  }
+
+  private Object refillLock(long id) {
+    return refillLocks[Long.hashCode(id) & (refillLocks.length - 1)];
+  }
+
+  public void setRefill(StockRefill refill) {
+    this.refill = refill;
+  }
+
+  /**
+   * Flash-sale products whose units live in a {@link StripedCounter} instead of
+   * the table. Their table cell stays registered and is drained into the
+   * stripes; anything that still lands there is picked up as a fallback.
+   */
+  private final ConcurrentHashMap<Long, StripedCounter> hot = new ConcurrentHashMap<>();
+  /** skips the hot lookup entirely while no product is in flash-sale mode */
+  private volatile boolean anyHot;
+
+  private StripedCounter hot(long id) {
+    return anyHot ? hot.get(id) : null;
+  }
+
+  /** Moves a product's units into per-core stripes, or back into the table. */
+  public synchronized void setHot(long id, boolean enabled) {
+    if (enabled) {
+      if (hot.containsKey(id)) return;
+      StripedCounter c = StripedCounter.forThisMachine();
+      stock.add(id, 0);
+      hot.put(id, c);
+      anyHot = true;
+      c.addSpread(stock.takeUpTo(id, Integer.MAX_VALUE));
+    } else {
+      StripedCounter c = hot.remove(id);
+      if (c == null) return;
+      anyHot = !hot.isEmpty();
+      c.retired = true;
+      stock.add(id, c.drainAll());
+    }
+    fireChanged(id);
+  }
+
+  public Set<Long> getHotProducts() {
+    return Set.copyOf(hot.keySet());
+  }
+
+  public synchronized void addChangeListener(LongConsumer listener) {
+    LongConsumer[] next = java.util.Arrays.copyOf(changeListeners, changeListeners.length + 1);
+    next[next.length - 1] = listener;
+    changeListeners = next;
+  }
+
+  private void fireChanged(long id) {
+    for (LongConsumer l : changeListeners) {
+      l.accept(id);
+    }
+  }
+
+  /**
+   * Sets the counter to the product table's quantity. With a {@link StockRefill}
+   * the table holds the shared pool rather than this node's units, so only the
+   * key is registered. Holds the same monitor as {@link #setHot}, so the
+   * quantity can never land in a counter that is being retired.
+   */
+  public synchronized void setStock(long id, int qty) {
+    StripedCounter c = hot(id);
+    if (refill != null) {
+      stock.putIfAbsent(id, 0);
+    } else if (c != null) {
+      stock.put(id, 0);
+      c.drainAll();
+      c.addSpread(qty);
+    } else {
+      stock.put(id, qty);
+    }
+    fireChanged(id);
   }
 
   public boolean hasKey(long id){
-    return stock.containsKey(id);
+    return stock.contains(id);
   }
 
   public void seedIfAbsent(long id, int qty){
-    stock.putIfAbsent(id, new AtomicInteger(qty));
+    stock.putIfAbsent(id, refill != null ? 0 : qty);
   }
 
   public int getAvailable(long id) {
-    AtomicInteger ai = stock.get(id);
-    return ai == null ? 0 : ai.get();
+    StockRefill r = refill;
+    StripedCounter c = hot(id);
+    int local = stock.get(id, 0) + (c == null ? 0 : c.sum());
+    return r == null ? local : local + r.pooled(id);
   }
 
-  public boolean reserveOne(long id) {
-    stock.putIfAbsent(id, new AtomicInteger(0));
-    AtomicInteger ai = stock.get(id);
-    while (true) {
-      int cur = ai.get();
-      if (cur <= 0) return false;
-      if (ai.compareAndSet(cur, cur - 1)) return true;
+  /** Single pass over the stock table; unknown ids report 0 like {@link #getAvailable(long)}. */
+  public Map<Long, Integer> getAvailable(Collection<Long> ids) {
+    Map<Long, Integer> out = new LinkedHashMap<>();
+    for (Long id : ids) {
+      if (id == null) continue;
+      out.put(id, getAvailable(id));
     }
+    return out;
+  }
+
+  public boolean reserveOne(long id) {
+    if (refill != null || anyHot) return reserveUpTo(id, 1) == 1;
+    if (!stock.decrementIfPositive(id)) return false;
+    fireChanged(id);
+    return true;
   }
 
   public void unreserveOne(long id) {
-    stock.computeIfPresent(id, (k, ai) -> { ai.incrementAndGet(); return ai; });
+    if (anyHot) {
+      release(id, 1);
+      return;
+    }
+    if (stock.incrementIfPresent(id)) {
+      fireChanged(id);
+    }
+  }
+
+  /**
+   * Reserves as many of {@code n} units as are available in one CAS.
+   *
+   * @return units actually reserved, between 0 and {@code n}
+   */
+  public int reserveUpTo(long id, int n) {
+    if (n <= 0) return 0;
+    int taken = takeLocal(id, n);
+    StockRefill r = refill;
+    if (taken < n && r != null) {
+      synchronized (refillLock(id)) {
+        // another thread may have refilled while we waited
+        taken += takeLocal(id, n - taken);
+        if (taken < n) {
+          int leased = r.lease(id, n - taken);
+          if (leased > 0) {
+            stock.add(id, leased);
+            taken += stock.takeUpTo(id, n - taken);
+          }
+        }
+      }
+    }
+    if (taken > 0) fireChanged(id);
+    return taken;
+  }
+
+  private int takeLocal(long id, int n) {
+    StripedCounter c = hot(id);
+    int taken = c == null ? 0 : c.takeUpTo(n);
+    if (taken < n) {
+      taken += stock.takeUpTo(id, n - taken);
+    }
+    return taken;
+  }
+
+  /**
+   * Corrects a counter by {@code delta} without going through reservations,
+   * e.g. for drift found by {@link InventoryReconciler}. Never drives it below 0.
+   */
+  public void adjust(long id, int delta) {
+    if (delta > 0) {
+      release(id, delta);
+    } else if (delta < 0 && takeLocal(id, -delta) > 0) {
+      fireChanged(id);
+    }
+  }
+
+  /** Takes every unreserved local unit, e.g. to hand a lease back to the pool. */
+  public int drain(long id) {
+    StripedCounter c = hot(id);
+    int taken;
+    synchronized (refillLock(id)) {
+      taken = stock.takeUpTo(id, Integer.MAX_VALUE) + (c == null ? 0 : c.drainAll());
+    }
+    if (taken > 0) fireChanged(id);
+    return taken;
+  }
+
+  /** Returns {@code n} previously reserved units; unknown ids are ignored like {@link #unreserveOne(long)}. */
+  public void release(long id, int n) {
+    if (n <= 0) return;
+    StripedCounter c = hot(id);
+    if (c != null) {
+      c.add(n);
+      // setHot(id, false) ran in between: forward what we (and others) left behind
+      if (c.retired) {
+        stock.add(id, c.drainAll());
+      }
+      fireChanged(id);
+      return;
+    }
+    if (stock.addIfPresent(id, n)) {
+      fireChanged(id);
+    }
   }
-}
\ No newline at end of file
+}
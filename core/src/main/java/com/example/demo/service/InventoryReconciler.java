@@ -0,0 +1,110 @@
+package com.example.demo.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.repository.ProductRepository;
+
+/**
+ * Keeps {@link InventoryMemory} honest against the product table.
+ * <p>
+ * For every active product the expected counter is {@code product.quantity}
+ * minus the units held in {@link CartService} carts. Products that look
+ * drifted are checked again against a second snapshot of the carts taken
+ * after the pass; one whose counter or held units moved in between is
+ * skipped. A drift is only corrected once two consecutive runs report the
+ * same value, so in-flight reservations and checkouts are not mistaken for
+ * drift. A run costs two passes over the carts, however many products there
+ * are.
+ */
+@Service
+public class InventoryReconciler {
+
+  private final ProductRepository productRepository;
+  private final InventoryMemory inventory;
+  private final CartService cartService;
+  private final StockLeaseService stockLeases;
+
+  /** productId -> drift seen on the previous run */
+  private Map<Long, Integer> pending = new HashMap<>();
+
+  private final AtomicLong runs = new AtomicLong();
+  private final AtomicLong productsChecked = new AtomicLong();
+  private final AtomicLong driftsDetected = new AtomicLong();
+  private final AtomicLong driftsCorrected = new AtomicLong();
+  private final AtomicLong unitsCorrected = new AtomicLong();
+  private volatile long lastRunAt;
+  private volatile Map<Long, Integer> lastDrift = Map.of();
+
+  public InventoryReconciler(ProductRepository productRepository, InventoryMemory inventory,
+      CartService cartService, StockLeaseService stockLeases) {
+    this.productRepository = productRepository;
+    this.inventory = inventory;
+    this.cartService = cartService;
+    this.stockLeases = stockLeases;
+  }
+
+  @Scheduled(fixedDelayString = "${app.inventory.reconcile-ms:60000}")
+  public synchronized void reconcile() {
+    // leased counters track this node's lease, not the row
+    if (stockLeases.isEnabled()) {
+      return;
+    }
+    Map<Long, Integer> held = cartService.getHeldUnits();
+    Map<Long, Integer> drift = new LinkedHashMap<>();
+    Map<Long, Integer> nextPending = new HashMap<>();
+
+    // productId -> {counter as read, drift}
+    Map<Long, int[]> suspects = new LinkedHashMap<>();
+    for (var level : productRepository.findActiveStockLevels()) {
+      long id = level.getId();
+      productsChecked.incrementAndGet();
+      int before = inventory.getAvailable(id);
+      int diff = before - Math.max(0, level.getQuantity() - held.getOrDefault(id, 0));
+      if (diff != 0) {
+        suspects.put(id, new int[] { before, diff });
+      }
+    }
+    Map<Long, Integer> heldAfter = suspects.isEmpty() ? held : cartService.getHeldUnits();
+
+    for (Map.Entry<Long, int[]> suspect : suspects.entrySet()) {
+      long id = suspect.getKey();
+      int diff = suspect.getValue()[1];
+      if (inventory.getAvailable(id) != suspect.getValue()[0]
+          || !heldAfter.getOrDefault(id, 0).equals(held.getOrDefault(id, 0))) {
+        // moved while we looked
+        continue;
+      }
+      driftsDetected.incrementAndGet();
+      drift.put(id, diff);
+      if (Integer.valueOf(diff).equals(pending.get(id))) {
+        inventory.adjust(id, -diff);
+        driftsCorrected.incrementAndGet();
+        unitsCorrected.addAndGet(Math.abs(diff));
+      } else {
+        nextPending.put(id, diff);
+      }
+    }
+    pending = nextPending;
+    lastDrift = drift;
+    lastRunAt = System.currentTimeMillis();
+    runs.incrementAndGet();
+  }
+
+  public Map<String, Object> getStats() {
+    Map<String, Object> out = new HashMap<>();
+    out.put("runs", runs.get());
+    out.put("productsChecked", productsChecked.get());
+    out.put("driftsDetected", driftsDetected.get());
+    out.put("driftsCorrected", driftsCorrected.get());
+    out.put("unitsCorrected", unitsCorrected.get());
+    out.put("lastRunAt", lastRunAt);
+    out.put("lastDrift", lastDrift);
+    return out;
+  }
+}
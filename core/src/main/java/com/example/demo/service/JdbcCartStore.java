@@ -0,0 +1,392 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * {@link CartStore} shared between nodes through the {@code cart_session} and
+ * {@code cart_line} tables, so carts survive failover without sticky sessions.
+ * <p>
+ * Each node keeps the carts its visitors use in a near-cache and answers
+ * reads from it. A write only marks the cart dirty. Every
+ * {@code app.cart.store.flush-ms} a flusher writes the full lines of the
+ * dirty carts back in one batched transaction. A cart this node has not
+ * seen yet is loaded on first use. A session with no cart is remembered as
+ * empty for {@code app.cart.store.near-cache-ms}. A cached cart is checked
+ * against its row at most that often too.
+ * <p>
+ * Every flush stamps the session row with a random version. A node reloads
+ * a cached cart only when the row's stamp is not the one it last saw and the
+ * cart has no unflushed writes of its own.
+ * <p>
+ * Stock counters are per node, so this store needs
+ * {@code app.inventory.mode=leased} and refuses to start without it. A
+ * session row names the node whose lease counts the cart's units. A node
+ * that loads another node's cart takes it over first, moving those units to
+ * its own lease and restamping the row so the old owner reloads before
+ * touching it again. Only the owner expires an abandoned cart.
+ */
+@Component
+@ConditionalOnProperty(name = "app.cart.store", havingValue = "jdbc")
+class JdbcCartStore implements CartStore {
+
+  private static final Logger log = LoggerFactory.getLogger(JdbcCartStore.class);
+
+  /** last-touched moves are written back no more often than this; carts expire in minutes */
+  private static final long TOUCH_FLUSH_MS = 10_000;
+
+  /** Near-cache entry plus what this node knows about its row. */
+  static final class SharedCart extends CartRecord {
+    /** guarded by the record's lock */
+    private int writes;
+    private volatile int flushedWrites;
+    /** stamp of the row as this node last wrote or read it; 0 before the first flush */
+    private volatile long version;
+    private volatile long checkedAt;
+    private volatile long flushedTouch;
+
+    SharedCart(String sessionId, long lastTouched, long now) {
+      super(sessionId, lastTouched);
+      this.checkedAt = now;
+    }
+
+    @Override
+    void onWrite() {
+      writes++;
+    }
+
+    /** caller holds the record's lock */
+    private boolean clean() {
+      return writes == flushedWrites;
+    }
+  }
+
+  private record Row(long lastTouched, long version, long[] lines, String node) {
+  }
+
+  private record Snapshot(SharedCart cart, long[] lines, int writes, long lastTouched, long version) {
+  }
+
+  private final JdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+  private final StockLeaseService leases;
+  private final String nodeId;
+  private final long nearCacheMs;
+
+  private final Map<String, SharedCart> near = new ConcurrentHashMap<>();
+
+  /** sessionId -> time until which it is taken to have no cart */
+  private final Map<String, Long> missing = new ConcurrentHashMap<>();
+
+  private final Set<SharedCart> dirty = ConcurrentHashMap.newKeySet();
+  private final Set<String> gone = ConcurrentHashMap.newKeySet();
+
+  private Consumer<CartRecord> openListener = cart -> {
+  };
+
+  public JdbcCartStore(JdbcTemplate jdbc, PlatformTransactionManager transactions, StockLeaseService leases,
+      @Value("${app.cart.store.near-cache-ms:5000}") long nearCacheMs) {
+    if (!leases.isEnabled()) {
+      throw new IllegalStateException("app.cart.store=jdbc needs app.inventory.mode=leased: "
+          + "with per-node stock, releasing a cart another node reserved would create units");
+    }
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(transactions);
+    this.leases = leases;
+    this.nodeId = leases.nodeId();
+    this.nearCacheMs = nearCacheMs;
+  }
+
+  @Override
+  public void setOpenListener(Consumer<CartRecord> listener) {
+    this.openListener = listener;
+  }
+
+  @Override
+  public CartRecord get(String sessionId) {
+    long now = CoarseClock.now();
+    SharedCart cart = near.get(sessionId);
+    if (cart != null) {
+      return now - cart.checkedAt < nearCacheMs ? cart : revalidate(cart, now);
+    }
+    Long until = missing.get(sessionId);
+    if (until != null && now < until) {
+      return null;
+    }
+    return load(sessionId, now);
+  }
+
+  @Override
+  public CartRecord cached(String sessionId) {
+    return near.get(sessionId);
+  }
+
+  @Override
+  public CartRecord getOrOpen(String sessionId, long now) {
+    CartRecord existing = get(sessionId);
+    if (existing != null) {
+      return existing;
+    }
+    missing.remove(sessionId);
+    return near.computeIfAbsent(sessionId, sid -> {
+      SharedCart cart = new SharedCart(sid, now, CoarseClock.now());
+      openListener.accept(cart);
+      return cart;
+    });
+  }
+
+  @Override
+  public void remove(String sessionId, CartRecord cart) {
+    if (near.remove(sessionId, cart)) {
+      gone.add(sessionId);
+    }
+  }
+
+  @Override
+  public Collection<CartRecord> local() {
+    return Collections.unmodifiableCollection(near.values());
+  }
+
+  @Override
+  public void written(CartRecord cart) {
+    dirty.add((SharedCart) cart);
+  }
+
+  @Override
+  public void touched(CartRecord cart) {
+    SharedCart shared = (SharedCart) cart;
+    if (shared.lastTouched - shared.flushedTouch >= TOUCH_FLUSH_MS) {
+      dirty.add(shared);
+    }
+  }
+
+  @Override
+  public boolean claimExpiry(CartRecord cart, long cutoff) {
+    SharedCart shared = (SharedCart) cart;
+    synchronized (shared) {
+      if (shared.version == 0 || !shared.clean()) {
+        // this node holds the newest state
+        return true;
+      }
+    }
+    Integer claimed = tx.execute(status -> {
+      int n = jdbc.update("delete from cart_session where session_id = ? and last_touched < ? "
+          + "and (node_id = ? or node_id is null)", shared.sessionId, cutoff, nodeId);
+      if (n == 1) {
+        jdbc.update("delete from cart_line where session_id = ?", shared.sessionId);
+      }
+      return n;
+    });
+    if (claimed != null && claimed == 1) {
+      return true;
+    }
+    // touched or taken over by another node since, or released there; reload on next use
+    near.remove(shared.sessionId, shared);
+    return false;
+  }
+
+  private CartRecord revalidate(SharedCart cart, long now) {
+    cart.checkedAt = now;
+    if (cart.version == 0) {
+      return cart;
+    }
+    Row row = takeOver(cart.sessionId, read(cart.sessionId));
+    synchronized (cart) {
+      if (cart.clean() && (row == null || row.version() != cart.version)) {
+        cart.load(row == null ? new long[0] : row.lines());
+        if (row != null) {
+          cart.version = row.version();
+          cart.flushedTouch = row.lastTouched();
+          cart.lastTouched = Math.max(cart.lastTouched, row.lastTouched());
+        }
+      }
+      if (cart.isOpen()) {
+        return cart;
+      }
+    }
+    near.remove(cart.sessionId, cart);
+    return null;
+  }
+
+  private CartRecord load(String sessionId, long now) {
+    Row row = takeOver(sessionId, read(sessionId));
+    if (row == null || row.lines().length == 0) {
+      missing.put(sessionId, now + nearCacheMs);
+      return null;
+    }
+    SharedCart cart = near.computeIfAbsent(sessionId, sid -> {
+      SharedCart loaded = new SharedCart(sid, row.lastTouched(), now);
+      loaded.load(row.lines());
+      loaded.version = row.version();
+      loaded.flushedTouch = row.lastTouched();
+      openListener.accept(loaded);
+      return loaded;
+    });
+    missing.remove(sessionId);
+    return cart;
+  }
+
+  /**
+   * Makes this node the owner of a cart another node reserved, moving its
+   * units into this node's lease. The row is only taken at the version it
+   * was read at, so the units moved are the ones in the lines; a new stamp
+   * makes the old owner reload it.
+   *
+   * @return the row as this node now owns it, or as last read if other
+   *         nodes kept changing it
+   */
+  private Row takeOver(String sessionId, Row row) {
+    for (int attempt = 0; attempt < 3; attempt++) {
+      if (row == null || row.lines().length == 0 || nodeId.equals(row.node())) {
+        return row;
+      }
+      Row seen = row;
+      long version = ThreadLocalRandom.current().nextLong() | 1;
+      Boolean taken = tx.execute(status -> {
+        int n = seen.node() == null
+            ? jdbc.update("update cart_session set node_id = ?, version = ? "
+                + "where session_id = ? and version = ? and node_id is null",
+                nodeId, version, sessionId, seen.version())
+            : jdbc.update("update cart_session set node_id = ?, version = ? "
+                + "where session_id = ? and version = ? and node_id = ?",
+                nodeId, version, sessionId, seen.version(), seen.node());
+        if (n != 1) {
+          return false;
+        }
+        leases.adopt(seen.node(), seen.lines());
+        return true;
+      });
+      if (Boolean.TRUE.equals(taken)) {
+        return new Row(seen.lastTouched(), version, seen.lines(), nodeId);
+      }
+      row = read(sessionId);
+    }
+    return row;
+  }
+
+  private Row read(String sessionId) {
+    return jdbc.query("select s.last_touched, s.version, s.node_id, l.product_id, l.qty from cart_session s "
+        + "left join cart_line l on l.session_id = s.session_id where s.session_id = ?", rs -> {
+          if (!rs.next()) {
+            return null;
+          }
+          long lastTouched = rs.getLong(1);
+          long version = rs.getLong(2);
+          String node = rs.getString(3);
+          long[] lines = new long[0];
+          do {
+            long productId = rs.getLong(4);
+            if (!rs.wasNull()) {
+              lines = Arrays.copyOf(lines, lines.length + 2);
+              lines[lines.length - 2] = productId;
+              lines[lines.length - 1] = rs.getInt(5);
+            }
+          } while (rs.next());
+          return new Row(lastTouched, version, lines, node);
+        }, sessionId);
+  }
+
+  /** Writes dirty carts back and deletes released ones, all in one transaction. */
+  @Scheduled(fixedDelayString = "${app.cart.store.flush-ms:200}")
+  @PreDestroy
+  public synchronized void flush() {
+    long now = System.currentTimeMillis();
+    missing.values().removeIf(until -> until <= now);
+    if (dirty.isEmpty() && gone.isEmpty()) {
+      return;
+    }
+
+    List<String> deletes = drain(gone);
+    Set<SharedCart> writes = new HashSet<>(drain(dirty));
+    for (String sid : deletes) {
+      // reopened since: its rows are rewritten right after the delete
+      SharedCart live = near.get(sid);
+      if (live != null) {
+        writes.add(live);
+      }
+    }
+    List<Snapshot> snaps = new ArrayList<>(writes.size());
+    for (SharedCart cart : writes) {
+      synchronized (cart) {
+        if (cart.isOpen()) {
+          snaps.add(new Snapshot(cart, cart.lines(), cart.writes, cart.lastTouched,
+              ThreadLocalRandom.current().nextLong() | 1));
+        }
+      }
+    }
+
+    try {
+      tx.executeWithoutResult(status -> write(deletes, snaps));
+    } catch (DataAccessException e) {
+      log.warn("Cart flush failed, retrying next run: {}", e.getMessage());
+      gone.addAll(deletes);
+      dirty.addAll(writes);
+      return;
+    }
+    for (Snapshot s : snaps) {
+      s.cart().version = s.version();
+      s.cart().flushedTouch = s.lastTouched();
+      s.cart().flushedWrites = s.writes();
+    }
+  }
+
+  private void write(List<String> deletes, List<Snapshot> snaps) {
+    List<Object[]> sessions = new ArrayList<>(deletes.size() + snaps.size());
+    deletes.forEach(sid -> sessions.add(new Object[] { sid }));
+    snaps.forEach(s -> sessions.add(new Object[] { s.cart().sessionId }));
+    jdbc.batchUpdate("delete from cart_line where session_id = ?", sessions);
+    jdbc.batchUpdate("delete from cart_session where session_id = ?", sessions.subList(0, deletes.size()));
+
+    List<Object[]> touched = new ArrayList<>(snaps.size());
+    snaps.forEach(s -> touched.add(new Object[] { s.lastTouched(), s.version(), nodeId, s.cart().sessionId }));
+    // the lines written are this node's reservations, so its lease counts them
+    int[] updated = jdbc.batchUpdate(
+        "update cart_session set last_touched = ?, version = ?, node_id = ? where session_id = ?", touched);
+    List<Object[]> inserts = new ArrayList<>();
+    List<Object[]> lines = new ArrayList<>();
+    for (int i = 0; i < snaps.size(); i++) {
+      Snapshot s = snaps.get(i);
+      if (updated[i] == 0) {
+        inserts.add(new Object[] { s.cart().sessionId, s.lastTouched(), s.version(), nodeId });
+      }
+      for (int j = 0; j < s.lines().length; j += 2) {
+        lines.add(new Object[] { s.cart().sessionId, s.lines()[j], (int) s.lines()[j + 1] });
+      }
+    }
+    jdbc.batchUpdate("insert into cart_session (session_id, last_touched, version, node_id) values (?, ?, ?, ?)",
+        inserts);
+    jdbc.batchUpdate("insert into cart_line (session_id, product_id, qty) values (?, ?, ?)", lines);
+  }
+
+  private static <T> List<T> drain(Set<T> set) {
+    List<T> out = new ArrayList<>();
+    for (Iterator<T> it = set.iterator(); it.hasNext();) {
+      out.add(it.next());
+      it.remove();
+    }
+    return out;
+  }
+}
@@ -23,13 +23,16 @@ public class OrderService {
   private final OrderRepository orderRepository;
   private final ProductRepository productRepository;
   private final OrderEmailService orderEmailService;
+  private final StockLeaseService stockLeases;
 
   public OrderService(OrderRepository orderRepository,
       ProductRepository productRepository,
-      OrderEmailService orderEmailService) {
+      OrderEmailService orderEmailService,
+      StockLeaseService stockLeases) {
     this.orderRepository = orderRepository;
     this.productRepository = productRepository;
     this.orderEmailService = orderEmailService;
+    this.stockLeases = stockLeases;
 
   }
 
@@ -85,6 +88,12 @@ public class OrderService {
 
       order.addItem(it);
 
+      // leased units already left the product row when the node took the lease
+      if (stockLeases.isEnabled()) {
+        stockLeases.sold(p.getId(), it.getQuantity());
+        continue;
+      }
+
       int newQty = p.getQuantity() - it.getQuantity();
       if (newQty < 0) {
         throw new ResponseStatusException(HttpStatus.CONFLICT, "Not enough stock");
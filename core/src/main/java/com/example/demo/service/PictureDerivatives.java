@@ -0,0 +1,211 @@
+package com.example.demo.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Makes the resized copies of product pictures that grid tiles, cart rows
+ * and product pages ask for, in the background.
+ * <p>
+ * Each picture gets one copy per {@link #WIDTHS} entry, written by
+ * {@link PictureStore} next to the original. Opaque pictures become JPEGs
+ * and ones with transparency PNGs. Jobs run on a small pool with a bounded
+ * queue. When the queue is full a job is dropped; the next request for a
+ * missing copy queues it again. The original is decoded once per job and
+ * subsampled while it is read, so a huge upload never becomes a huge
+ * bitmap. A picture that cannot be decoded is marked failed in the store
+ * and never queued again; its original is served at every size.
+ */
+@Service
+public class PictureDerivatives {
+
+  private static final Logger log = LoggerFactory.getLogger(PictureDerivatives.class);
+
+  /** widths made for every picture, smallest first */
+  public static final int[] WIDTHS = { 200, 600, 1200 };
+
+  private static final float JPEG_QUALITY = 0.82f;
+
+  private final PictureStore store;
+  private final ThreadPoolExecutor pool;
+
+  /** hashes queued or being worked on */
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  public PictureDerivatives(PictureStore store,
+      @Value("${app.pictures.derivatives.threads:1}") int threads,
+      @Value("${app.pictures.derivatives.queue:100}") int queue) {
+    this.store = store;
+    AtomicInteger n = new AtomicInteger();
+    this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queue), r -> {
+          Thread t = new Thread(r, "picture-derivatives-" + n.incrementAndGet());
+          t.setDaemon(true);
+          t.setPriority(Thread.MIN_PRIORITY);
+          return t;
+        });
+  }
+
+  /** @return the width of the copy that serves a request for {@code size} pixels */
+  public static int widthFor(int size) {
+    for (int w : WIDTHS) {
+      if (size <= w) {
+        return w;
+      }
+    }
+    return WIDTHS[WIDTHS.length - 1];
+  }
+
+  /** Queues the missing copies of a stored picture, unless it cannot be resized; returns at once. */
+  public void request(String hash) {
+    if (pending.contains(hash) || store.failed(hash) || !pending.add(hash)) {
+      return;
+    }
+    try {
+      pool.execute(() -> {
+        try {
+          make(hash);
+        } catch (IOException | RuntimeException e) {
+          log.warn("Resizing picture {} failed: {}", hash, e.getMessage());
+        } finally {
+          pending.remove(hash);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.remove(hash);
+    }
+  }
+
+  /** Writes every missing copy of a picture; the caller's thread does the work. */
+  void make(String hash) throws IOException {
+    if (!store.contains(hash)) {
+      // not copied to this node yet; not a reason to give up on it
+      return;
+    }
+    int widest = 0;
+    for (int w : WIDTHS) {
+      if (store.derivative(hash, w).isEmpty()) {
+        widest = w;
+      }
+    }
+    if (widest == 0) {
+      return;
+    }
+    BufferedImage source;
+    try {
+      source = read(store.path(hash), widest);
+    } catch (IIOException | RuntimeException e) {
+      // the bytes, not the disk: trying again would fail the same way
+      source = null;
+    }
+    if (source == null) {
+      store.markFailed(hash);
+      log.warn("Picture {} is not an image ImageIO can read; serving the original at every size", hash);
+      return;
+    }
+    boolean alpha = source.getColorModel().hasAlpha();
+    String format = alpha ? "png" : "jpg";
+    for (int w : WIDTHS) {
+      if (store.derivative(hash, w).isEmpty()) {
+        BufferedImage scaled = scale(source, w, alpha);
+        store.write(store.derivativePath(hash, w, format), out -> {
+          try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            encode(scaled, format, ios);
+          }
+        });
+      }
+    }
+  }
+
+  /** Decodes the first image, skipping pixels so it comes out no narrower than twice {@code width}. */
+  private static BufferedImage read(Path file, int width) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        int step = Math.max(1, reader.getWidth(0) / (2 * width));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /** Scales down by halves, then once more to {@code width}; never scales up. */
+  private static BufferedImage scale(BufferedImage source, int width, boolean alpha) {
+    int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    int targetW = Math.min(width, source.getWidth());
+    int targetH = Math.max(1, (int) Math.round((double) source.getHeight() * targetW / source.getWidth()));
+    BufferedImage current = source;
+    int w = source.getWidth();
+    int h = source.getHeight();
+    do {
+      w = Math.max(targetW, w / 2);
+      h = Math.max(targetH, h / 2);
+      BufferedImage next = new BufferedImage(w, h, type);
+      Graphics2D g = next.createGraphics();
+      try {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(current, 0, 0, w, h, null);
+      } finally {
+        g.dispose();
+      }
+      current = next;
+    } while (w != targetW || h != targetH);
+    return current;
+  }
+
+  private static void encode(BufferedImage image, String format, ImageOutputStream out) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersBySuffix(format).next();
+    try {
+      writer.setOutput(out);
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      if ("jpg".equals(format)) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+      }
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+}
@@ -0,0 +1,148 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Local content-addressed copy of product pictures, served straight from
+ * disk.
+ * <p>
+ * A picture is stored under the SHA-256 of its bytes, as
+ * {@code <dir>/<first two hex digits>/<hash>}, so identical pictures share
+ * one file and a file never changes once written. Files are written to a
+ * temporary name and moved into place; uploads are hashed while they are
+ * copied, never held in memory whole. {@code product_image} stays the
+ * durable copy; a node that lacks a file fills it from there on first use.
+ * <p>
+ * Resized copies made by {@link PictureDerivatives} sit next to their
+ * original as {@code <hash>-<width>.jpg} or {@code .png}. A picture that
+ * cannot be resized gets an empty {@code <hash>.failed} marker there instead,
+ * so it is not tried again.
+ */
+@Service
+public class PictureStore {
+
+  private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+  static final String[] DERIVATIVE_FORMATS = { "jpg", "png" };
+
+  private static final int BUFFER_BYTES = 64 * 1024;
+
+  private final Path root;
+
+  public PictureStore(@Value("${app.pictures.dir:./data/pictures}") String dir) {
+    this.root = Paths.get(dir);
+  }
+
+  /** @return where the picture with this hash lives, whether or not it is there yet */
+  public Path path(String hash) {
+    if (hash == null || !HASH.matcher(hash).matches()) {
+      throw new IllegalArgumentException("not a picture hash: " + hash);
+    }
+    return root.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  /** Where the {@code width}-pixel copy of a picture goes, in the given format. */
+  Path derivativePath(String hash, int width, String format) {
+    return path(hash).resolveSibling(hash + "-" + width + "." + format);
+  }
+
+  /** @return the {@code width}-pixel copy of a picture, if it has been made */
+  public Optional<Path> derivative(String hash, int width) {
+    for (String format : DERIVATIVE_FORMATS) {
+      Path p = derivativePath(hash, width, format);
+      if (Files.isRegularFile(p)) {
+        return Optional.of(p);
+      }
+    }
+    return Optional.empty();
+  }
+
+  /** @return true once making copies of this picture has failed for good */
+  public boolean failed(String hash) {
+    return Files.isRegularFile(path(hash).resolveSibling(hash + ".failed"));
+  }
+
+  void markFailed(String hash) throws IOException {
+    write(path(hash).resolveSibling(hash + ".failed"), out -> {
+    });
+  }
+
+  public boolean contains(String hash) {
+    return hash != null && HASH.matcher(hash).matches() && Files.isRegularFile(path(hash));
+  }
+
+  /**
+   * Stores a picture read from {@code in}, hashing it as it goes, so only one
+   * buffer of it is ever in memory. A picture that is already stored leaves
+   * the existing file alone.
+   *
+   * @return the picture's hash
+   */
+  public String put(InputStream in) throws IOException {
+    Files.createDirectories(root);
+    Path tmp = Files.createTempFile(root, "upload", ".tmp");
+    try {
+      MessageDigest digest = sha256();
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        byte[] buf = new byte[BUFFER_BYTES];
+        for (int n; (n = in.read(buf)) != -1;) {
+          digest.update(buf, 0, n);
+          out.write(buf, 0, n);
+        }
+      }
+      String hash = HexFormat.of().formatHex(digest.digest());
+      Path target = path(hash);
+      if (!Files.isRegularFile(target)) {
+        Files.createDirectories(target.getParent());
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return hash;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  interface Writer {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /** Writes a file under a temporary name and moves it into place, so readers never see part of it. */
+  void write(Path target, Writer writer) throws IOException {
+    Files.createDirectories(target.getParent());
+    Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        writer.writeTo(out);
+      }
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  static String hash(byte[] data) {
+    return HexFormat.of().formatHex(sha256().digest(data));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 unavailable", e);
+    }
+  }
+}
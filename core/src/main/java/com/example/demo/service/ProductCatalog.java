@@ -0,0 +1,206 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.demo.model.Product;
+import com.example.demo.repository.ProductRepository;
+
+/**
+ * Immutable in-memory copy of the catalog that serves every storefront
+ * listing.
+ * <p>
+ * A {@link Snapshot} is built from one query that leaves out the picture
+ * bytes. It comes with its lists prebuilt: active products, featured, new
+ * arrivals, and each of those by normalized category. Readers take the
+ * current snapshot without locking. {@link ProductService} rebuilds and
+ * swaps it after each change it makes. Writes made elsewhere, such as
+ * checkouts, stock leases or other nodes, show up on the next periodic
+ * refresh.
+ * <p>
+ * Every snapshot that differs from the one before gets a higher
+ * {@link Snapshot#version()}, which the product endpoints hand out as their
+ * ETag. Versions start from the wall clock, so they keep increasing across
+ * restarts.
+ * <p>
+ * The products handed out are shared between requests and must not be
+ * modified.
+ */
+@Service
+public class ProductCatalog {
+
+  /** active listings go newest first; filtered ones by name, like the queries they replace */
+  private static final Comparator<Product> BY_NAME = Comparator
+      .comparing(Product::getName, String.CASE_INSENSITIVE_ORDER)
+      .thenComparing(Product::getId);
+
+  /** One version of the catalog with its listings. */
+  public static final class Snapshot {
+    private final long version;
+    private final long modifiedAt;
+    private final Map<Long, Product> byId;
+    private final List<Product> active;
+    private final List<Product> featured;
+    private final List<Product> newArrivals;
+    private final Map<String, List<Product>> byCategory;
+    private final Map<String, List<Product>> featuredByCategory;
+    private final Map<String, List<Product>> newArrivalsByCategory;
+
+    private Snapshot(List<Product> products, long version, long modifiedAt) {
+      this.version = version;
+      this.modifiedAt = modifiedAt;
+      Map<Long, Product> ids = new HashMap<>(products.size() * 2);
+      List<Product> act = new ArrayList<>();
+      for (Product p : products) {
+        ids.put(p.getId(), p);
+        if (!p.isProductArchived()) {
+          act.add(p);
+        }
+      }
+      act.sort(Comparator.comparing(Product::getId).reversed());
+
+      List<Product> byName = new ArrayList<>(act);
+      byName.sort(BY_NAME);
+      List<Product> feat = new ArrayList<>();
+      List<Product> arrivals = new ArrayList<>();
+      Map<String, List<Product>> cat = new HashMap<>();
+      Map<String, List<Product>> featCat = new HashMap<>();
+      Map<String, List<Product>> arrivalsCat = new HashMap<>();
+      for (Product p : byName) {
+        String key = normalize(p.getCategory());
+        cat.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+        if (p.isFeatured()) {
+          feat.add(p);
+          featCat.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+        }
+        if (p.isNewArrival()) {
+          arrivals.add(p);
+          arrivalsCat.computeIfAbsent(key, k -> new ArrayList<>()).add(p);
+        }
+      }
+
+      this.byId = Collections.unmodifiableMap(ids);
+      this.active = List.copyOf(act);
+      this.featured = List.copyOf(feat);
+      this.newArrivals = List.copyOf(arrivals);
+      this.byCategory = freeze(cat);
+      this.featuredByCategory = freeze(featCat);
+      this.newArrivalsByCategory = freeze(arrivalsCat);
+    }
+
+    private static Map<String, List<Product>> freeze(Map<String, List<Product>> lists) {
+      Map<String, List<Product>> out = new HashMap<>(lists.size() * 2);
+      lists.forEach((k, v) -> out.put(k, List.copyOf(v)));
+      return Collections.unmodifiableMap(out);
+    }
+
+    public long version() {
+      return version;
+    }
+
+    /** epoch millis of the change that produced this version */
+    public long modifiedAt() {
+      return modifiedAt;
+    }
+
+    public String etag() {
+      return "\"catalog-" + version + "\"";
+    }
+
+    /** @return any product, archived ones included */
+    public Optional<Product> get(long id) {
+      return Optional.ofNullable(byId.get(id));
+    }
+
+    public List<Product> active() {
+      return active;
+    }
+
+    public List<Long> activeIds() {
+      List<Long> ids = new ArrayList<>(active.size());
+      active.forEach(p -> ids.add(p.getId()));
+      return ids;
+    }
+
+    public List<Product> featured(String category) {
+      return category == null ? featured : featuredByCategory.getOrDefault(normalize(category), List.of());
+    }
+
+    public List<Product> newArrivals(String category) {
+      return category == null ? newArrivals : newArrivalsByCategory.getOrDefault(normalize(category), List.of());
+    }
+
+    public List<Product> inCategory(String category) {
+      return byCategory.getOrDefault(normalize(category), List.of());
+    }
+  }
+
+  private final ProductRepository productRepository;
+
+  private volatile Snapshot current = new Snapshot(List.of(), 0, 0);
+
+  public ProductCatalog(ProductRepository productRepository) {
+    this.productRepository = productRepository;
+  }
+
+  /** Category key the listings are indexed by: trimmed and lower-cased. */
+  static String normalize(String category) {
+    return category == null ? "" : category.trim().toLowerCase(Locale.ROOT);
+  }
+
+  public Snapshot current() {
+    return current;
+  }
+
+  /** Reloads the catalog and swaps a new snapshot in if anything changed. */
+  @PostConstruct
+  @Scheduled(fixedDelayString = "${app.catalog.refresh-ms:30000}", initialDelayString = "${app.catalog.refresh-ms:30000}")
+  public synchronized void refresh() {
+    List<Product> products = new ArrayList<>();
+    for (ProductRepository.CatalogEntry e : productRepository.findCatalogEntries()) {
+      products.add(toProduct(e));
+    }
+    Snapshot previous = current;
+    Map<Long, Product> ids = new HashMap<>(products.size() * 2);
+    products.forEach(p -> ids.put(p.getId(), p));
+    if (previous.version > 0 && ids.equals(previous.byId)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    current = new Snapshot(products, Math.max(previous.version + 1, now), now);
+  }
+
+  private static Product toProduct(ProductRepository.CatalogEntry e) {
+    Product p = new Product();
+    p.setId(e.getId());
+    p.setSoldOut(Boolean.TRUE.equals(e.getSoldOut()));
+    p.setPictureType(e.getPictureType());
+    p.setPictureVersion(e.getPictureVersion());
+    p.setPictureHash(e.getPictureHash());
+    p.setMaterialCost(e.getMaterialCost());
+    p.setWeightOunces(e.getWeightOunces());
+    p.setLengthInches(e.getLengthInches());
+    p.setWidthInches(e.getWidthInches());
+    p.setHeightInches(e.getHeightInches());
+    p.setName(e.getName());
+    p.setDescription(e.getDescription());
+    p.setPrice(e.getPrice());
+    p.setQuantity(e.getQuantity());
+    p.setCategory(e.getCategory());
+    p.setFeatured(Boolean.TRUE.equals(e.getFeatured()));
+    p.setNewArrival(Boolean.TRUE.equals(e.getNewArrival()));
+    p.setProductArchived(Boolean.TRUE.equals(e.getProductArchived()));
+    return p;
+  }
+}
@@ -1,14 +1,20 @@
 package com.example.demo.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.example.demo.model.Product;
+import com.example.demo.repository.ProductImageRepository;
 import com.example.demo.repository.ProductRepository;
 
 import lombok.RequiredArgsConstructor;
@@ -18,7 +24,14 @@ import lombok.RequiredArgsConstructor;
 public class ProductService {
 
   private final ProductRepository productRepository;
+  private final ProductImageRepository productImageRepository;
   private final InventoryMemory inventory;
+  private final CartService cartService;
+  private final ProductCatalog catalog;
+  private final PictureStore pictureStore;
+  private final PictureDerivatives pictureDerivatives;
+  private final TransactionTemplate transactions;
+  private final StockLeaseService stockLeases;
 
   public Product saveProduct(Product product) {
     if (product.getCategory() == null || product.getCategory().isBlank()) {
@@ -38,21 +51,44 @@ public class ProductService {
     }
 
     product.setSoldOut(product.getQuantity() <= 0);
+    // in leased mode quantity is the shared pool: an edit of an existing product moves it by the difference
+    int poolDelta = 0;
+    if (stockLeases.isEnabled() && product.getId() != null) {
+      Integer stored = productRepository.findById(product.getId()).map(Product::getQuantity).orElse(null);
+      if (stored != null) {
+        poolDelta = product.getQuantity() - stored;
+        product.setQuantity(stored);
+      }
+    }
     Product saved = productRepository.save(product);
+    if (poolDelta != 0) {
+      stockLeases.adjustPool(saved.getId(), poolDelta);
+    }
+    cartService.forgetProduct(saved.getId());
+    catalog.refresh();
+    if (stockLeases.isEnabled()) {
+      saved = catalog.current().get(saved.getId()).orElse(saved);
+    }
 
     try {
-      inventory.setStock(saved.getId(), saved.getQuantity());
+      inventory.setStock(saved.getId(), availableAfterHolds(saved));
     } catch (Exception e) {
 
     }
     return saved;
   }
 
+  /** the row's quantity minus what carts already hold, so an edit does not wipe out reservations */
+  private int availableAfterHolds(Product product) {
+    return Math.max(0, product.getQuantity() - cartService.getHeldUnits(product.getId()));
+  }
+
   public List<Product> getAllProducts() {
-    List<Product> list = productRepository.findByProductArchivedFalseOrderByIdDesc();
+    return catalog.current().active();
+  }
 
-    list.forEach(p -> inventory.seedIfAbsent(p.getId(), p.getQuantity()));
-    return list;
+  public List<Long> getActiveProductIds() {
+    return catalog.current().activeIds();
   }
 
   public List<Product> getArchivedProducts() {
@@ -63,21 +99,84 @@ public class ProductService {
     return productRepository.findById(id);
   }
 
-  public Product saveProductPicture(@NonNull Long id, byte[] productPictureData, String pictureType) {
+  /**
+   * The file holding a product's picture in the local {@link PictureStore}. A
+   * picture this node has not stored yet is copied there from
+   * {@code product_image} first, and the product gets its hash if it had none.
+   */
+  public Optional<Path> getPictureFile(Product product) {
+    String hash = product.getPictureHash();
+    if (pictureStore.contains(hash)) {
+      return Optional.of(pictureStore.path(hash));
+    }
+    Optional<String> stored = productImageRepository.read(product.getId(), pictureStore::put);
+    if (stored.isEmpty()) {
+      return Optional.empty();
+    }
+    if (!stored.get().equals(hash)) {
+      transactions.executeWithoutResult(status -> productRepository.updatePictureHash(product.getId(), stored.get()));
+      catalog.refresh();
+    }
+    return Optional.of(pictureStore.path(stored.get()));
+  }
 
-    Product product = productRepository.findById(id).orElseThrow(() -> new RuntimeException("Product not found"));
-    product.setProductPictureFile(productPictureData);
-    product.setPictureType(pictureType);
-    product.setPictureVersion(System.currentTimeMillis());
-    return productRepository.save(product);
+  /**
+   * The resized copy of a product's picture that serves {@code width}-pixel
+   * slots. Empty while the copy is still being made, or when the picture
+   * cannot be resized; asking for one that is missing queues it, once the
+   * original is in the local store.
+   */
+  public Optional<Path> getPictureDerivative(Product product, int width) {
+    String hash = product.getPictureHash();
+    if (hash == null) {
+      return Optional.empty();
+    }
+    Optional<Path> copy = pictureStore.derivative(hash, PictureDerivatives.widthFor(width));
+    if (copy.isEmpty() && pictureStore.contains(hash)) {
+      pictureDerivatives.request(hash);
+    }
+    return copy;
   }
 
- public List<Product> getProductCategory(String category) {
+  /** The current catalog snapshot, for callers that need its version along with the listings. */
+  public ProductCatalog.Snapshot getCatalog() {
+    return catalog.current();
+  }
 
-  List<Product> list = productRepository.findActiveByCategory(category);
+  /**
+   * Replaces a product's picture with one read from {@code in}. The bytes go
+   * to the {@link PictureStore} as they arrive and are hashed on the way, so
+   * the upload is never held in memory. Re-uploading the current picture
+   * writes nothing; otherwise the {@code product_image} row and the picture
+   * columns are written in one transaction, the row copied inside the
+   * database when another product already has the same picture.
+   */
+  public Product saveProductPicture(@NonNull Long id, InputStream in, String pictureType) throws IOException {
+    ProductRepository.PictureInfo current = productRepository.findPictureInfo(id)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Product not found"));
+    String hash = pictureStore.put(in);
+    if (hash.equals(current.getPictureHash()) && Objects.equals(pictureType, current.getPictureType())) {
+      return catalog.current().get(id).orElseGet(() -> productRepository.findById(id).orElseThrow());
+    }
 
-  return list;
-}
+    transactions.executeWithoutResult(status -> {
+      productRepository.updatePicture(id, hash, pictureType, System.currentTimeMillis());
+      Long donor = productRepository.findPictureDonor(hash, id);
+      if (donor == null || !productImageRepository.copy(donor, id, pictureType)) {
+        productImageRepository.save(id, pictureType, pictureStore.path(hash));
+      }
+    });
+    catalog.refresh();
+    // cart rows link the picture by version
+    cartService.forgetProduct(id);
+    // resized copies are made in the background; the upload does not wait for them
+    pictureDerivatives.request(hash);
+    return catalog.current().get(id).orElseGet(() -> productRepository.findById(id).orElseThrow());
+  }
+
+  public List<Product> getProductCategory(String category) {
+    return catalog.current().inCategory(category);
+  }
 
   public Product updateProduct(@NonNull Long id, Product updatedProduct) {
     Optional<Product> existingProduct = productRepository.findById(id);
@@ -86,26 +185,34 @@ public class ProductService {
       product.setName(updatedProduct.getName());
       product.setDescription(updatedProduct.getDescription());
       product.setPrice(updatedProduct.getPrice());
-      product.setQuantity(updatedProduct.getQuantity());
-      product.setSoldOut(product.getQuantity() <= 0);
+      // in leased mode quantity is the shared pool: apply the edit as a difference, after the save
+      int poolDelta = 0;
+      if (stockLeases.isEnabled()) {
+        poolDelta = updatedProduct.getQuantity() - product.getQuantity();
+      } else {
+        product.setQuantity(updatedProduct.getQuantity());
+      }
+      product.setSoldOut(updatedProduct.getQuantity() <= 0);
       product.setCategory(updatedProduct.getCategory());
       product.setFeatured(updatedProduct.isFeatured());
       product.setNewArrival(updatedProduct.isNewArrival());
       product.setPictureVersion(System.currentTimeMillis());
       Product saved = productRepository.save(product);
-
-      inventory.setStock(saved.getId(), saved.getQuantity());
-      return saved;
+      if (poolDelta != 0) {
+        stockLeases.adjustPool(id, poolDelta);
+      }
+      cartService.forgetProduct(saved.getId());
+      catalog.refresh();
+
+      inventory.setStock(saved.getId(), availableAfterHolds(saved));
+      return stockLeases.isEnabled() ? catalog.current().get(id).orElse(saved) : saved;
     } else {
       throw new RuntimeException("Product not found");
     }
   }
 
   public List<Product> getFeaturedProducts() {
-    List<Product> list = productRepository.findByFeaturedTrueAndProductArchivedFalseOrderByNameAsc();
-    list.forEach(p -> inventory.seedIfAbsent(p.getId(), p.getQuantity()));
-    return list;
-
+    return catalog.current().featured(null);
   }
 
   public List<Product> getLowStockProducts() {
@@ -113,23 +220,15 @@ public class ProductService {
   }
 
   public List<Product> getFeaturedProductsByCategory(String category) {
-    List<Product> list = productRepository
-        .findByCategoryIgnoreCaseAndFeaturedTrueAndProductArchivedFalseOrderByNameAsc(category);
-    list.forEach(p -> inventory.seedIfAbsent(p.getId(), p.getQuantity()));
-    return list;
+    return catalog.current().featured(category);
   }
 
   public List<Product> getNewArrivals() {
-    List<Product> list = productRepository.findByNewArrivalTrueAndProductArchivedFalseOrderByNameAsc();
-    list.forEach(p -> inventory.seedIfAbsent(p.getId(), p.getQuantity()));
-    return list;
+    return catalog.current().newArrivals(null);
   }
 
   public List<Product> getNewArrivalsByCategory(String category) {
-    List<Product> list = productRepository
-        .findByCategoryIgnoreCaseAndNewArrivalTrueAndProductArchivedFalseOrderByNameAsc(category);
-    list.forEach(p -> inventory.seedIfAbsent(p.getId(), p.getQuantity()));
-    return list;
+    return catalog.current().newArrivals(category);
   }
 
   public List<Product> getSoldOutProducts() {
@@ -142,6 +241,7 @@ public class ProductService {
     product.setProductArchived(true);
 
     productRepository.save(product);
+    catalog.refresh();
   }
 
   public Product toggleArchive(@NonNull Long id) {
@@ -149,12 +249,20 @@ public class ProductService {
 
     product.setProductArchived(!product.isProductArchived());
 
-    return productRepository.save(product);
+    Product saved = productRepository.save(product);
+    catalog.refresh();
+    // archived products are skipped by the startup warm-up
+    if (!saved.isProductArchived()) {
+      inventory.seedIfAbsent(saved.getId(), saved.getQuantity());
+    }
+    return saved;
   }
 
   public void deleteProduct(@NonNull Long id) {
     if (productRepository.existsById(id)) {
       productRepository.deleteById(id);
+      cartService.forgetProduct(id);
+      catalog.refresh();
     } else {
       throw new IllegalArgumentException("Product with id " + id + " does not exist");
     }
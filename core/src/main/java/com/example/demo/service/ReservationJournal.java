@@ -0,0 +1,323 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Append-only, on-disk log of cart reservations so holds survive a restart.
+ * <p>
+ * Request threads only enqueue; a single writer thread appends the records
+ * with sequential NIO writes and calls {@code force} at most once per
+ * {@link #FORCE_INTERVAL_MS}, so the reserve path never waits on fsync. The
+ * writer keeps a mirror of the journaled state and, once the log grows past
+ * {@link #COMPACT_BYTES}, rewrites it as a snapshot of just the live holds.
+ * <p>
+ * An event reaches the mirror only once it is in the file. A batch whose
+ * write fails is kept and retried after the log has been rewritten from the
+ * mirror, so a half-written batch never stays behind. When the queue is full
+ * a request thread waits up to {@link #OFFER_WAIT_MS} for room; an event that
+ * still does not fit is counted in {@link #droppedEvents()} and logged.
+ * <p>
+ * Record layout: {@code type(1) ts(8) sidLen(2) sid} followed, for
+ * {@link #DELTA} records, by {@code productId(8) qty(4)}.
+ */
+@Service
+public class ReservationJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(ReservationJournal.class);
+
+  private static final byte DELTA = 'D';
+  private static final byte CLEAR = 'C';
+
+  private static final long FORCE_INTERVAL_MS = 1_000;
+  private static final long COMPACT_BYTES = 16L * 1024 * 1024;
+  private static final long OFFER_WAIT_MS = 100;
+  private static final String FILE_NAME = "reservations.journal";
+
+  /** A session's journaled cart, as rebuilt by {@link #replay()}. */
+  public static final class SessionHolds {
+    public final Map<Long, Integer> items = new HashMap<>();
+    public long lastTouched;
+  }
+
+  private record Event(byte type, String sid, long productId, int qty, long ts) {
+  }
+
+  private final boolean enabled;
+  private final Path file;
+  private final long compactBytes;
+
+  private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>(1_000_000);
+
+  /** writer-thread state */
+  private final Map<String, SessionHolds> mirror = new HashMap<>();
+  private final ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+  private FileChannel channel;
+  private long lastForce;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private Thread writer;
+  private volatile boolean running;
+
+  public ReservationJournal(
+      @Value("${app.cart.journal.enabled:false}") boolean enabled,
+      @Value("${app.cart.journal.dir:./data/cart-journal}") String dir) {
+    this(enabled, dir, COMPACT_BYTES);
+  }
+
+  ReservationJournal(boolean enabled, String dir, long compactBytes) {
+    this.enabled = enabled;
+    this.file = Paths.get(dir).resolve(FILE_NAME);
+    this.compactBytes = compactBytes;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Reads the journal back, starts the writer and returns the live holds per
+   * session. A torn record at the tail (crash mid-write) is dropped.
+   */
+  public synchronized Map<String, SessionHolds> replay() throws IOException {
+    if (!enabled) {
+      return Map.of();
+    }
+    if (running) {
+      throw new IllegalStateException("Journal already started");
+    }
+    Files.createDirectories(file.getParent());
+    mirror.clear();
+    if (Files.exists(file)) {
+      try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+        ByteBuffer data = ByteBuffer.allocate((int) in.size());
+        while (data.hasRemaining()) {
+          if (in.read(data) < 0) {
+            break;
+          }
+        }
+        data.flip();
+        while (data.hasRemaining()) {
+          Event e = decode(data);
+          if (e == null) {
+            log.warn("Cart journal: dropped torn tail at byte {}", data.position());
+            break;
+          }
+          apply(e);
+        }
+      }
+    }
+
+    // start from a compact snapshot of what survived
+    writeSnapshot();
+    running = true;
+    writer = new Thread(this::runWriter, "cart-journal");
+    writer.setDaemon(true);
+    writer.start();
+
+    Map<String, SessionHolds> out = new HashMap<>();
+    mirror.forEach((sid, h) -> {
+      SessionHolds copy = new SessionHolds();
+      copy.items.putAll(h.items);
+      copy.lastTouched = h.lastTouched;
+      out.put(sid, copy);
+    });
+    return out;
+  }
+
+  /** Records {@code qty} units added to (positive) or removed from (negative) a cart line. */
+  public void delta(String sid, long productId, int qty) {
+    if (enabled && qty != 0) {
+      offer(new Event(DELTA, sid, productId, qty, System.currentTimeMillis()));
+    }
+  }
+
+  /** Records that a session's cart is gone, whether released, expired or checked out. */
+  public void clear(String sid) {
+    if (enabled) {
+      offer(new Event(CLEAR, sid, 0, 0, System.currentTimeMillis()));
+    }
+  }
+
+  /** Events that found the queue full even after waiting; holds they touch may not survive a restart. */
+  public long droppedEvents() {
+    return dropped.get();
+  }
+
+  private void offer(Event e) {
+    try {
+      if (queue.offer(e) || queue.offer(e, OFFER_WAIT_MS, TimeUnit.MILLISECONDS)) {
+        return;
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    long n = dropped.incrementAndGet();
+    if (n == 1 || n % 10_000 == 0) {
+      log.error("Cart journal queue full; {} events dropped so far, some holds will not survive a restart", n);
+    }
+  }
+
+  private void runWriter() {
+    List<Event> batch = new ArrayList<>();
+    boolean failed = false;
+    while (running || !queue.isEmpty() || !batch.isEmpty()) {
+      try {
+        if (failed) {
+          // rewrite from the mirror, dropping whatever part of the failed batch got in
+          writeSnapshot();
+          failed = false;
+        }
+        if (batch.isEmpty()) {
+          Event first = queue.poll(FORCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          if (first != null) {
+            batch.add(first);
+            queue.drainTo(batch, 4096);
+          }
+        }
+        if (!batch.isEmpty()) {
+          for (Event e : batch) {
+            append(e);
+          }
+          flushBuffer();
+          batch.forEach(this::apply);
+          batch.clear();
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastForce >= FORCE_INTERVAL_MS) {
+          channel.force(false);
+          lastForce = now;
+        }
+        if (channel.size() > compactBytes) {
+          writeSnapshot();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (IOException e) {
+        buf.clear();
+        failed = true;
+        if (!running) {
+          log.error("Cart journal write failed while closing; {} events not journaled", batch.size() + queue.size(), e);
+          return;
+        }
+        log.warn("Cart journal write failed, retrying {} events: {}", batch.size(), e.getMessage());
+        try {
+          Thread.sleep(FORCE_INTERVAL_MS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException, InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    writer.join(5_000);
+    if (channel != null) {
+      channel.force(true);
+      channel.close();
+    }
+  }
+
+  private void apply(Event e) {
+    if (e.type() == CLEAR) {
+      mirror.remove(e.sid());
+      return;
+    }
+    SessionHolds h = mirror.computeIfAbsent(e.sid(), k -> new SessionHolds());
+    h.lastTouched = e.ts();
+    h.items.merge(e.productId(), e.qty(), Integer::sum);
+    if (h.items.get(e.productId()) <= 0) {
+      h.items.remove(e.productId());
+    }
+  }
+
+  /** Rewrites the journal as one positive delta per live cart line, then swaps it in. */
+  private void writeSnapshot() throws IOException {
+    Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+    if (channel != null) {
+      channel.close();
+    }
+    channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    for (Map.Entry<String, SessionHolds> s : mirror.entrySet()) {
+      for (Map.Entry<Long, Integer> line : s.getValue().items.entrySet()) {
+        append(new Event(DELTA, s.getKey(), line.getKey(), line.getValue(), s.getValue().lastTouched));
+      }
+    }
+    flushBuffer();
+    channel.force(true);
+    channel.close();
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    lastForce = System.currentTimeMillis();
+  }
+
+  private void append(Event e) throws IOException {
+    byte[] sid = e.sid().getBytes(StandardCharsets.UTF_8);
+    if (buf.remaining() < 1 + 8 + 2 + sid.length + 8 + 4) {
+      flushBuffer();
+    }
+    buf.put(e.type()).putLong(e.ts()).putShort((short) sid.length).put(sid);
+    if (e.type() == DELTA) {
+      buf.putLong(e.productId()).putInt(e.qty());
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    buf.clear();
+  }
+
+  /** @return the next record, or {@code null} if the buffer ends mid-record */
+  private static Event decode(ByteBuffer in) {
+    if (in.remaining() < 1 + 8 + 2) {
+      return null;
+    }
+    byte type = in.get();
+    long ts = in.getLong();
+    int len = Short.toUnsignedInt(in.getShort());
+    int body = type == DELTA ? 8 + 4 : 0;
+    if ((type != DELTA && type != CLEAR) || in.remaining() < len + body) {
+      return null;
+    }
+    byte[] sid = new byte[len];
+    in.get(sid);
+    if (type == CLEAR) {
+      return new Event(CLEAR, new String(sid, StandardCharsets.UTF_8), 0, 0, ts);
+    }
+    return new Event(DELTA, new String(sid, StandardCharsets.UTF_8), in.getLong(), in.getInt(), ts);
+  }
+}
@@ -0,0 +1,186 @@
+package com.example.demo.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes stock changes from {@link InventoryMemory} to open SSE clients.
+ * <p>
+ * Reserving threads only mark the product id dirty; a scheduled flush
+ * coalesces everything that changed during the window into one
+ * {@code stock} event of {@code productId -> available}, so a burst of
+ * reservations on one product costs one event and slow clients never hold up
+ * the reserving thread.
+ * <p>
+ * The flush only hands events to clients; sends run on a small pool of
+ * their own, so a client with a full socket buffer holds up neither the
+ * other clients nor the scheduler thread the flush shares with every other
+ * {@code @Scheduled} job. Each client keeps one pending map: changes that
+ * arrive while it is still being written to are merged into it, newest
+ * value per product winning. A client that has had changes waiting for
+ * longer than {@code app.stock.events.max-lag-ms} is disconnected; the
+ * browser reconnects and reads the current stock afresh.
+ */
+@Service
+public class StockEventService {
+
+  private static final Logger log = LoggerFactory.getLogger(StockEventService.class);
+
+  /** SSE connections are recycled by the browser after this long. */
+  private static final long EMITTER_TIMEOUT_MS = 30 * 60 * 1000;
+
+  private final InventoryMemory inventory;
+  private final long maxLagMs;
+  private final ThreadPoolExecutor sender;
+
+  /** productId -> 1 while a change is waiting to be flushed */
+  private final StockTable dirty = new StockTable();
+
+  private final List<Client> clients = new CopyOnWriteArrayList<>();
+
+  /** One SSE connection and the changes it has not been sent yet. */
+  private static final class Client {
+    final SseEmitter emitter;
+
+    /** guarded by this */
+    private Map<Long, Integer> pending = new HashMap<>();
+    /** a send task for this client is queued or running; guarded by this */
+    private boolean queued;
+    /** when pending last went from empty to non-empty, 0 while caught up; guarded by this */
+    private long behindSince;
+
+    Client(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    /** @return true if the caller must queue a send task */
+    synchronized boolean offer(Map<Long, Integer> changes, long now) {
+      if (pending.isEmpty()) {
+        behindSince = now;
+      }
+      pending.putAll(changes);
+      if (queued) {
+        return false;
+      }
+      queued = true;
+      return true;
+    }
+
+    /** @return the changes to send next, or null once caught up (the send task then ends) */
+    synchronized Map<Long, Integer> take() {
+      if (pending.isEmpty()) {
+        queued = false;
+        behindSince = 0;
+        return null;
+      }
+      Map<Long, Integer> batch = pending;
+      pending = new HashMap<>();
+      return batch;
+    }
+
+    /** the send task could not be queued; the next flush tries again */
+    synchronized void unqueue() {
+      queued = false;
+    }
+
+    synchronized long behindSince() {
+      return behindSince;
+    }
+  }
+
+  public StockEventService(InventoryMemory inventory,
+      @Value("${app.stock.events.threads:2}") int threads,
+      @Value("${app.stock.events.queue:1000}") int queue,
+      @Value("${app.stock.events.max-lag-ms:10000}") long maxLagMs) {
+    this.inventory = inventory;
+    this.maxLagMs = maxLagMs;
+    AtomicInteger n = new AtomicInteger();
+    this.sender = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queue), r -> {
+          Thread t = new Thread(r, "stock-events-" + n.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  @PostConstruct
+  public void register() {
+    inventory.addChangeListener(id -> dirty.put(id, 1));
+  }
+
+  public SseEmitter subscribe() {
+    SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+    Client client = new Client(emitter);
+    emitter.onCompletion(() -> clients.remove(client));
+    emitter.onTimeout(() -> clients.remove(client));
+    emitter.onError(e -> clients.remove(client));
+    clients.add(client);
+    return emitter;
+  }
+
+  /** coalescing window for stock events */
+  @Scheduled(fixedDelay = 250)
+  public void flush() {
+    List<Long> ids = new ArrayList<>();
+    dirty.forEachKey(id -> {
+      if (dirty.compareAndSet(id, 1, 0)) {
+        ids.add(id);
+      }
+    });
+    long now = System.currentTimeMillis();
+    Map<Long, Integer> changes = ids.isEmpty() || clients.isEmpty() ? Map.of() : inventory.getAvailable(ids);
+
+    for (Client client : clients) {
+      long since = client.behindSince();
+      if (since != 0 && now - since > maxLagMs) {
+        clients.remove(client);
+        client.emitter.complete();
+        log.info("Dropped a stock event client {} ms behind", now - since);
+        continue;
+      }
+      if (!changes.isEmpty() && client.offer(changes, now)) {
+        try {
+          sender.execute(() -> send(client));
+        } catch (RejectedExecutionException e) {
+          client.unqueue();
+        }
+      }
+    }
+  }
+
+  private void send(Client client) {
+    for (Map<Long, Integer> batch; (batch = client.take()) != null;) {
+      try {
+        client.emitter.send(SseEmitter.event().name("stock").data(batch));
+      } catch (IOException | IllegalStateException e) {
+        clients.remove(client);
+        client.emitter.completeWithError(e);
+        return;
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    sender.shutdownNow();
+  }
+}
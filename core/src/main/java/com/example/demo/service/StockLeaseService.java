@@ -0,0 +1,363 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Clustered inventory: every node leases blocks of units out of the
+ * {@code product} row and serves reservations from its local lease.
+ * <p>
+ * In {@code leased} mode {@code product.quantity} is the shared pool of units
+ * no node holds. A lease is a conditional decrement of that row, so two nodes
+ * can never hand out the same unit. Units a node leased but did not sell go
+ * back to the pool once {@code app.inventory.lease.idle-ms} passes without a
+ * new lease for the product, and all of them on shutdown.
+ * <p>
+ * What each node holds, leased and not yet sold, is recorded in
+ * {@code stock_lease} in the same transaction as the pool change. A node
+ * renews its rows on every sweep; rows left to expire for
+ * {@code app.inventory.lease.ttl-ms}, because their node died without
+ * returning them, are put back into the pool by whichever node sweeps next.
+ * A node that finds its own row reclaimed drops its local units for that
+ * product rather than sell them twice.
+ * <p>
+ * With the shared cart store, units sitting in a cart belong to the lease of
+ * the node that owns the cart ({@code cart_session.node_id}). A node that
+ * takes a cart over moves them to its own lease first, so whichever node
+ * later releases them is the one whose lease counts them. Reclaiming a dead
+ * node's lease leaves out the units in its carts that are still live; the
+ * next node to take such a cart over takes them on. A cart that nobody takes
+ * over and whose node holds no lease rows any more is released by whichever
+ * node sweeps once it is abandoned, its units going straight to the pool.
+ */
+@Service
+public class StockLeaseService implements InventoryMemory.StockRefill {
+
+  private static final Logger log = LoggerFactory.getLogger(StockLeaseService.class);
+
+  private final InventoryMemory inventory;
+  private final JdbcTemplate jdbc;
+  private final TransactionTemplate tx;
+
+  private final boolean enabled;
+  private final int blockSize;
+  private final long idleMs;
+  private final long ttlMs;
+  private final String nodeId;
+
+  /** productId -> last time this node leased units for it */
+  private final Map<Long, Long> lastLeased = new ConcurrentHashMap<>();
+
+  /** productId -> pool size last seen in the product table */
+  private volatile Map<Long, Integer> pool = new ConcurrentHashMap<>();
+
+  public StockLeaseService(InventoryMemory inventory, JdbcTemplate jdbc, PlatformTransactionManager transactions,
+      @Value("${app.inventory.mode:local}") String mode,
+      @Value("${app.inventory.lease.block-size:10}") int blockSize,
+      @Value("${app.inventory.lease.idle-ms:30000}") long idleMs,
+      @Value("${app.inventory.lease.ttl-ms:60000}") long ttlMs,
+      @Value("${app.inventory.lease.node-id:}") String nodeId) {
+    this.inventory = inventory;
+    this.jdbc = jdbc;
+    this.tx = new TransactionTemplate(transactions);
+    this.enabled = "leased".equalsIgnoreCase(mode);
+    this.blockSize = blockSize;
+    this.idleMs = idleMs;
+    this.ttlMs = ttlMs;
+    this.nodeId = nodeId == null || nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** the name this node's rows in {@code stock_lease} are kept under */
+  public String nodeId() {
+    return nodeId;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (enabled) {
+      refreshPool();
+      inventory.setRefill(this);
+    }
+  }
+
+  @Override
+  public int lease(long id, int wanted) {
+    int n = Math.max(wanted, blockSize);
+    // a few rounds in case another node drains the row between read and update
+    for (int attempt = 0; attempt < 3; attempt++) {
+      if (take(id, n)) {
+        int taken = n;
+        lastLeased.put(id, System.currentTimeMillis());
+        pool.computeIfPresent(id, (k, v) -> Math.max(0, v - taken));
+        return taken;
+      }
+      Integer left = jdbc.query("select quantity from product where id = ?",
+          rs -> rs.next() ? rs.getInt(1) : null, id);
+      if (left == null || left <= 0) {
+        return 0;
+      }
+      n = Math.min(n, left);
+    }
+    return 0;
+  }
+
+  private boolean take(long id, int n) {
+    Boolean taken = tx.execute(status -> {
+      if (jdbc.update("update product set quantity = quantity - ? where id = ? and quantity >= ?", n, id, n) != 1) {
+        return false;
+      }
+      addToLease(nodeId, id, n);
+      return true;
+    });
+    return Boolean.TRUE.equals(taken);
+  }
+
+  /**
+   * Adds to (or, negative, takes from) a node's row; the caller holds the
+   * product row. Only additions renew the row, so taking units from a dead
+   * node's lease does not keep it alive.
+   */
+  private void addToLease(String node, long id, int units) {
+    if (units < 0) {
+      jdbc.update("update stock_lease set units = units + ? where node_id = ? and product_id = ?", units, node, id);
+      jdbc.update("delete from stock_lease where node_id = ? and product_id = ? and units <= 0", node, id);
+      return;
+    }
+    long expires = System.currentTimeMillis() + ttlMs;
+    if (jdbc.update("update stock_lease set units = units + ?, expires_at = ? where node_id = ? and product_id = ?",
+        units, expires, node, id) == 0) {
+      jdbc.update("insert into stock_lease (node_id, product_id, units, expires_at) values (?, ?, ?, ?)",
+          node, id, units, expires);
+    }
+  }
+
+  @Override
+  public int pooled(long id) {
+    return pool.getOrDefault(id, 0);
+  }
+
+  /**
+   * Records units of this node's lease as sold. Runs in the caller's
+   * transaction, so it commits or rolls back with the order.
+   */
+  public void sold(long id, int units) {
+    if (enabled && units > 0) {
+      jdbc.update("update stock_lease set units = greatest(units - ?, 0) where node_id = ? and product_id = ?",
+          units, nodeId, id);
+    }
+  }
+
+  /**
+   * Moves the units of a cart's lines ({@code productId, qty} pairs) from
+   * {@code fromNode}'s lease to this node's, when this node takes the cart
+   * over. Runs in the caller's transaction. Units of a lease that was
+   * reclaimed were left out of the pool then, so this node simply takes
+   * them on.
+   */
+  public void adopt(String fromNode, long[] lines) {
+    List<long[]> byProduct = new ArrayList<>();
+    for (int i = 0; i < lines.length; i += 2) {
+      byProduct.add(new long[] { lines[i], lines[i + 1] });
+    }
+    // product rows first, in id order, like every other lease change
+    byProduct.sort((x, y) -> Long.compare(x[0], y[0]));
+    for (long[] line : byProduct) {
+      long id = line[0];
+      int units = (int) line[1];
+      jdbc.update("update product set quantity = quantity where id = ?", id);
+      if (fromNode != null) {
+        addToLease(fromNode, id, -units);
+      }
+      addToLease(nodeId, id, units);
+      // the units come back here when the cart lets go of them
+      inventory.seedIfAbsent(id, 0);
+    }
+  }
+
+  /**
+   * Applies an admin's change of a product's quantity to the pool as a
+   * difference, so units leased out meanwhile are neither lost nor counted
+   * twice.
+   *
+   * @return the pool afterwards
+   */
+  public int adjustPool(long id, int delta) {
+    Integer after = tx.execute(status -> {
+      jdbc.update("update product set quantity = greatest(quantity + ?, 0) where id = ?", delta, id);
+      return jdbc.queryForObject("select quantity from product where id = ?", Integer.class, id);
+    });
+    pool.put(id, after);
+    return after;
+  }
+
+  /**
+   * Renews this node's leases, hands back the ones on products nobody here
+   * has reserved lately, and reclaims leases of nodes that stopped renewing.
+   */
+  @Scheduled(fixedDelayString = "${app.inventory.lease.sweep-ms:5000}")
+  public void returnIdleLeases() {
+    if (!enabled) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    jdbc.update("update stock_lease set expires_at = ? where node_id = ?", now + ttlMs, nodeId);
+    List<Long> held = jdbc.queryForList("select product_id from stock_lease where node_id = ?", Long.class, nodeId);
+    for (Long id : held) {
+      if (now - lastLeased.getOrDefault(id, 0L) >= idleMs) {
+        giveBack(id);
+      }
+    }
+    for (Long id : lastLeased.keySet()) {
+      if (!held.contains(id) && now - lastLeased.getOrDefault(id, now) >= ttlMs) {
+        int dropped = inventory.drain(id);
+        lastLeased.remove(id);
+        if (dropped > 0) {
+          log.warn("Lease on product {} was reclaimed; dropped {} local units", id, dropped);
+        }
+      }
+    }
+    reclaimExpired(now);
+    releaseOrphanedCarts(now);
+    refreshPool();
+  }
+
+  /**
+   * Puts the units of leases nobody renewed back into the pool, less those
+   * in the dead node's live carts. Its abandoned carts are dropped first, so
+   * their units go back with the lease.
+   */
+  void reclaimExpired(long now) {
+    List<Object[]> expired = new ArrayList<>();
+    jdbc.query("select node_id, product_id, units from stock_lease where expires_at < ? and node_id <> ?",
+        rs -> {
+          expired.add(new Object[] { rs.getString(1), rs.getLong(2), rs.getInt(3) });
+        }, now, nodeId);
+    Set<String> deadNodes = new HashSet<>();
+    expired.forEach(row -> deadNodes.add((String) row[0]));
+    long abandoned = now - CartService.CART_TTL_MS;
+    for (String node : deadNodes) {
+      tx.executeWithoutResult(status -> {
+        jdbc.update("delete from cart_line where session_id in "
+            + "(select session_id from cart_session where node_id = ? and last_touched < ?)", node, abandoned);
+        jdbc.update("delete from cart_session where node_id = ? and last_touched < ?", node, abandoned);
+      });
+    }
+    for (Object[] row : expired) {
+      String node = (String) row[0];
+      long id = (Long) row[1];
+      int units = (Integer) row[2];
+      Integer back = tx.execute(status -> {
+        int inCarts = jdbc.queryForObject("select coalesce(sum(l.qty), 0) from cart_line l "
+            + "join cart_session s on s.session_id = l.session_id where s.node_id = ? and l.product_id = ?",
+            Integer.class, node, id);
+        int free = Math.max(0, units - inCarts);
+        jdbc.update("update product set quantity = quantity + ? where id = ?", free, id);
+        if (jdbc.update("delete from stock_lease where node_id = ? and product_id = ? and units = ? and expires_at < ?",
+            node, id, units, now) != 1) {
+          // renewed or changed since we looked
+          status.setRollbackOnly();
+          return null;
+        }
+        return free;
+      });
+      if (back != null) {
+        log.info("Reclaimed {} units of product {} from expired lease of node {}", back, id, node);
+      }
+    }
+  }
+
+  /**
+   * Releases abandoned carts of nodes that hold no lease rows, i.e. died and
+   * were reclaimed. No lease counts their units, so they go back to the pool
+   * directly. Runs after {@link #reclaimExpired}, so a dead node's carts are
+   * only taken here once its lease is gone.
+   */
+  void releaseOrphanedCarts(long now) {
+    long abandoned = now - CartService.CART_TTL_MS;
+    List<Object[]> orphans = new ArrayList<>();
+    jdbc.query("select s.session_id, s.node_id from cart_session s where s.node_id <> ? and s.last_touched < ? "
+        + "and not exists (select 1 from stock_lease l where l.node_id = s.node_id)",
+        rs -> {
+          orphans.add(new Object[] { rs.getString(1), rs.getString(2) });
+        }, nodeId, abandoned);
+    for (Object[] orphan : orphans) {
+      String sid = (String) orphan[0];
+      String node = (String) orphan[1];
+      Integer back = tx.execute(status -> {
+        // not taken over or touched since we looked
+        if (jdbc.update("delete from cart_session where session_id = ? and node_id = ? and last_touched < ?",
+            sid, node, abandoned) != 1) {
+          return null;
+        }
+        List<long[]> lines = new ArrayList<>();
+        jdbc.query("select product_id, qty from cart_line where session_id = ? order by product_id",
+            rs -> {
+              lines.add(new long[] { rs.getLong(1), rs.getInt(2) });
+            }, sid);
+        jdbc.update("delete from cart_line where session_id = ?", sid);
+        int units = 0;
+        for (long[] line : lines) {
+          jdbc.update("update product set quantity = quantity + ? where id = ?", (int) line[1], line[0]);
+          units += (int) line[1];
+        }
+        return units;
+      });
+      if (back != null) {
+        log.info("Released abandoned cart of dead node {}; {} units back in the pool", node, back);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void returnAllLeases() {
+    if (!enabled) {
+      return;
+    }
+    inventory.setRefill(null);
+    jdbc.queryForList("select product_id from stock_lease where node_id = ?", Long.class, nodeId)
+        .forEach(this::giveBack);
+    lastLeased.clear();
+  }
+
+  private void giveBack(long id) {
+    int free = inventory.drain(id);
+    if (free > 0) {
+      tx.executeWithoutResult(status -> {
+        jdbc.update("update product set quantity = quantity + ? where id = ?", free, id);
+        addToLease(nodeId, id, -free);
+      });
+      pool.merge(id, free, Integer::sum);
+    }
+  }
+
+  private void refreshPool() {
+    Map<Long, Integer> next = new HashMap<>();
+    jdbc.query("select id, quantity from product where product_archived = false",
+        rs -> {
+          next.put(rs.getLong(1), rs.getInt(2));
+        });
+    pool = new ConcurrentHashMap<>(next);
+  }
+}
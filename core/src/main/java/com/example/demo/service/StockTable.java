@@ -0,0 +1,237 @@
+package com.example.demo.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Concurrent {@code long -> int} table backing {@link InventoryMemory}.
+ * <p>
+ * Layout:
+ * <ul>
+ * <li>An open-addressing index ({@code long[] keys} + {@code int[] cells})
+ * maps a product id to a counter cell. Keys are never removed.</li>
+ * <li>Counters live in fixed-size {@code int[]} chunks that are never copied,
+ * so a resize of the index cannot lose a concurrent CAS. Each counter sits on
+ * its own 64-byte line to keep hot products from false sharing.</li>
+ * </ul>
+ * Lookups and counter updates are lock-free and allocation-free. Only the
+ * first insert of an id takes the monitor.
+ */
+final class StockTable {
+
+  private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+  private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+  /** Reserved marker for an empty index slot. */
+  static final long EMPTY = Long.MIN_VALUE;
+
+  /** ints per counter: one cache line */
+  private static final int STRIDE_SHIFT = 4;
+  private static final int CELLS_PER_CHUNK_SHIFT = 6;
+  private static final int CELLS_PER_CHUNK = 1 << CELLS_PER_CHUNK_SHIFT;
+  private static final int CHUNK_INTS = CELLS_PER_CHUNK << STRIDE_SHIFT;
+
+  private static final class Index {
+    final long[] keys;
+    final int[] cells;
+    final int mask;
+
+    Index(int capacity) {
+      keys = new long[capacity];
+      cells = new int[capacity];
+      mask = capacity - 1;
+      Arrays.fill(keys, EMPTY);
+    }
+  }
+
+  private volatile Index index = new Index(256);
+  private volatile int[][] chunks = new int[4][];
+  /** guarded by this */
+  private int size;
+
+  /** @return the counter cell for {@code id}, or -1 if absent; {@link #EMPTY} is always absent */
+  private int find(long id) {
+    if (id == EMPTY) return -1;
+    Index ix = index;
+    int i = mix(id) & ix.mask;
+    while (true) {
+      long k = (long) LONGS.getAcquire(ix.keys, i);
+      if (k == id) return ix.cells[i];
+      if (k == EMPTY) {
+        // an insert may have resized the index after we read it
+        Index now = index;
+        if (now == ix) return -1;
+        ix = now;
+        i = mix(id) & ix.mask;
+        continue;
+      }
+      i = (i + 1) & ix.mask;
+    }
+  }
+
+  /**
+   * @return the cell for {@code id}, inserting it with {@code initial} when
+   *         absent; -1 for {@link #EMPTY}, which can never be stored
+   */
+  private int findOrInsert(long id, int initial) {
+    if (id == EMPTY) return -1;
+    int cell = find(id);
+    return cell >= 0 ? cell : insert(id, initial);
+  }
+
+  private synchronized int insert(long id, int initial) {
+    if (id == EMPTY) {
+      throw new IllegalArgumentException("Unsupported id " + id);
+    }
+    int existing = find(id);
+    if (existing >= 0) return existing;
+
+    if ((size + 1) * 2 > index.keys.length) {
+      rehash(index.keys.length * 2);
+    }
+    int cell = size++;
+    int[][] cs = chunks;
+    int chunk = cell >>> CELLS_PER_CHUNK_SHIFT;
+    if (chunk >= cs.length) {
+      cs = Arrays.copyOf(cs, cs.length * 2);
+    }
+    if (cs[chunk] == null) {
+      cs[chunk] = new int[CHUNK_INTS];
+    }
+    cs[chunk][offset(cell)] = initial;
+    chunks = cs;
+
+    Index ix = index;
+    int i = mix(id) & ix.mask;
+    while ((long) LONGS.getAcquire(ix.keys, i) != EMPTY) {
+      i = (i + 1) & ix.mask;
+    }
+    ix.cells[i] = cell;
+    LONGS.setRelease(ix.keys, i, id);
+    return cell;
+  }
+
+  private void rehash(int capacity) {
+    Index old = index;
+    Index next = new Index(capacity);
+    for (int j = 0; j < old.keys.length; j++) {
+      long k = old.keys[j];
+      if (k == EMPTY) continue;
+      int i = mix(k) & next.mask;
+      while (next.keys[i] != EMPTY) {
+        i = (i + 1) & next.mask;
+      }
+      next.keys[i] = k;
+      next.cells[i] = old.cells[j];
+    }
+    index = next;
+  }
+
+  private int[] chunk(int cell) {
+    return chunks[cell >>> CELLS_PER_CHUNK_SHIFT];
+  }
+
+  private static int offset(int cell) {
+    return (cell & (CELLS_PER_CHUNK - 1)) << STRIDE_SHIFT;
+  }
+
+  private static int mix(long id) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  boolean contains(long id) {
+    return find(id) >= 0;
+  }
+
+  int get(long id, int absent) {
+    int cell = find(id);
+    return cell < 0 ? absent : (int) INTS.getVolatile(chunk(cell), offset(cell));
+  }
+
+  void put(long id, int value) {
+    int cell = findOrInsert(id, value);
+    if (cell < 0) return;
+    INTS.setVolatile(chunk(cell), offset(cell), value);
+  }
+
+  /** @return {@code true} if {@code id} was absent and now holds {@code value} */
+  boolean putIfAbsent(long id, int value) {
+    if (id == EMPTY || find(id) >= 0) return false;
+    synchronized (this) {
+      if (find(id) >= 0) return false;
+      insert(id, value);
+      return true;
+    }
+  }
+
+  /**
+   * Decrements the counter if it is positive. An absent id is inserted at 0,
+   * matching the map-based store this replaced.
+   */
+  boolean decrementIfPositive(long id) {
+    int cell = findOrInsert(id, 0);
+    if (cell < 0) return false;
+    int[] c = chunk(cell);
+    int off = offset(cell);
+    while (true) {
+      int cur = (int) INTS.getVolatile(c, off);
+      if (cur <= 0) return false;
+      if (INTS.compareAndSet(c, off, cur, cur - 1)) return true;
+    }
+  }
+
+  /**
+   * Takes up to {@code n} units with a single successful CAS.
+   *
+   * @return the number of units taken, 0 when the counter is empty
+   */
+  int takeUpTo(long id, int n) {
+    int cell = findOrInsert(id, 0);
+    if (cell < 0) return 0;
+    int[] c = chunk(cell);
+    int off = offset(cell);
+    while (true) {
+      int cur = (int) INTS.getVolatile(c, off);
+      if (cur <= 0) return 0;
+      int take = Math.min(cur, n);
+      if (INTS.compareAndSet(c, off, cur, cur - take)) return take;
+    }
+  }
+
+  /** @return {@code false} if {@code id} is absent */
+  boolean incrementIfPresent(long id) {
+    return addIfPresent(id, 1);
+  }
+
+  /** Adds {@code delta}, inserting {@code id} at 0 first when absent; {@link #EMPTY} is ignored. */
+  void add(long id, int delta) {
+    int cell = findOrInsert(id, 0);
+    if (cell < 0) return;
+    INTS.getAndAdd(chunk(cell), offset(cell), delta);
+  }
+
+  /** @return {@code false} if {@code id} is absent */
+  boolean addIfPresent(long id, int delta) {
+    int cell = find(id);
+    if (cell < 0) return false;
+    INTS.getAndAdd(chunk(cell), offset(cell), delta);
+    return true;
+  }
+
+  /** @return {@code false} if {@code id} is absent or its counter is not {@code expect} */
+  boolean compareAndSet(long id, int expect, int update) {
+    int cell = find(id);
+    return cell >= 0 && INTS.compareAndSet(chunk(cell), offset(cell), expect, update);
+  }
+
+  void forEachKey(LongConsumer action) {
+    long[] keys = index.keys;
+    for (int i = 0; i < keys.length; i++) {
+      long k = (long) LONGS.getAcquire(keys, i);
+      if (k != EMPTY) action.accept(k);
+    }
+  }
+}
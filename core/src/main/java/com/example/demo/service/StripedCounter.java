@@ -0,0 +1,96 @@
+package com.example.demo.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Stock counter for a single hot product, split across padded per-core
+ * stripes.
+ * <p>
+ * Each thread takes from and returns to its home stripe and only borrows
+ * from the others when that one runs dry. Every stripe is only ever
+ * decremented by a CAS from a positive value, so the units handed out can
+ * never exceed the units put in.
+ */
+final class StripedCounter {
+
+  private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+  /** ints per stripe: one cache line, plus a leading line to clear the array header */
+  private static final int PAD_SHIFT = 4;
+
+  private final int[] cells;
+  private final int mask;
+
+  /** set once the product leaves hot mode; late returns are forwarded by the caller */
+  volatile boolean retired;
+
+  StripedCounter(int stripes) {
+    int size = Integer.highestOneBit(Math.max(2, stripes) * 2 - 1);
+    this.mask = size - 1;
+    this.cells = new int[(size + 1) << PAD_SHIFT];
+  }
+
+  static StripedCounter forThisMachine() {
+    return new StripedCounter(Runtime.getRuntime().availableProcessors());
+  }
+
+  private static int offset(int stripe) {
+    return (stripe + 1) << PAD_SHIFT;
+  }
+
+  private int home() {
+    long id = Thread.currentThread().getId();
+    return (int) (id ^ (id >>> 16)) & mask;
+  }
+
+  /** @return units taken, between 0 and {@code n} */
+  int takeUpTo(int n) {
+    int got = 0;
+    int start = home();
+    for (int k = 0; k <= mask && got < n; k++) {
+      int off = offset((start + k) & mask);
+      while (got < n) {
+        int cur = (int) INTS.getVolatile(cells, off);
+        if (cur <= 0) break;
+        int take = Math.min(cur, n - got);
+        if (INTS.compareAndSet(cells, off, cur, cur - take)) {
+          got += take;
+        }
+      }
+    }
+    return got;
+  }
+
+  void add(int n) {
+    INTS.getAndAdd(cells, offset(home()), n);
+  }
+
+  /** Spreads {@code total} evenly so every stripe starts with its share. */
+  void addSpread(int total) {
+    int stripes = mask + 1;
+    for (int i = 0; i < stripes; i++) {
+      int share = total / stripes + (i < total % stripes ? 1 : 0);
+      if (share > 0) {
+        INTS.getAndAdd(cells, offset(i), share);
+      }
+    }
+  }
+
+  int sum() {
+    int total = 0;
+    for (int i = 0; i <= mask; i++) {
+      total += (int) INTS.getVolatile(cells, offset(i));
+    }
+    return total;
+  }
+
+  /** Empties every stripe and returns what was in them. */
+  int drainAll() {
+    int total = 0;
+    for (int i = 0; i <= mask; i++) {
+      total += (int) INTS.getAndSet(cells, offset(i), 0);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,12 @@
+create table if not exists cart_session (
+  session_id varchar(128) primary key,
+  last_touched bigint not null,
+  version bigint not null
+);
+
+create table if not exists cart_line (
+  session_id varchar(128) not null,
+  product_id bigint not null,
+  qty integer not null,
+  primary key (session_id, product_id)
+);
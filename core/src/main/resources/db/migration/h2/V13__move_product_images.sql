@@ -0,0 +1,16 @@
+-- picture bytes live in their own table so product reads never load them
+create table if not exists product_image (
+  product_id bigint primary key,
+  content_type varchar(255),
+  image_data blob not null,
+  constraint FK_product_image_product
+    foreign key (product_id) references product (id) on delete cascade
+);
+
+insert into product_image (product_id, content_type, image_data)
+select id, picture_type, product_picture_file
+from product
+where product_picture_file is not null;
+
+alter table product
+  drop column if exists product_picture_file;
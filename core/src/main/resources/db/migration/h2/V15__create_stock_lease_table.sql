@@ -0,0 +1,10 @@
+create table if not exists stock_lease (
+  node_id varchar(64) not null,
+  product_id bigint not null,
+  units integer not null,
+  expires_at bigint not null,
+  primary key (node_id, product_id),
+  constraint FK_stock_lease_product foreign key (product_id) references product (id) on delete cascade
+);
+
+create index if not exists IX_stock_lease_expires_at on stock_lease (expires_at);
@@ -0,0 +1,3 @@
+-- node whose stock lease counts the units in this cart; only that node releases them
+alter table cart_session
+  add column if not exists node_id varchar(64);
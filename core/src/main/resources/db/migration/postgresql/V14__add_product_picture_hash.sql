@@ -0,0 +1,3 @@
+-- SHA-256 of the picture bytes; names the picture's file in the local picture store
+alter table product
+  add column if not exists picture_hash varchar(64);
@@ -0,0 +1,2 @@
+-- lease sweeps look up a node's abandoned carts
+create index if not exists IX_cart_session_node_touched on cart_session (node_id, last_touched);
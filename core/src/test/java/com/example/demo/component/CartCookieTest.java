@@ -0,0 +1,113 @@
+package com.example.demo.component;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.example.demo.service.CartService;
+
+/** Only a cookie this server signed, in the current layout and within the reserve time, is read back. */
+class CartCookieTest {
+
+  private static final String SECRET = "test-secret";
+
+  private final CartCookie cookie = new CartCookie(true, SECRET, true);
+
+  private String written(String cartId, Map<Long, Integer> items) {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    cookie.write(response, cartId, items);
+    String header = response.getHeader(HttpHeaders.SET_COOKIE);
+    return header.substring(CartCookie.NAME.length() + 1, header.indexOf(';'));
+  }
+
+  private static MockHttpServletRequest request(String value) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setCookies(new Cookie(CartCookie.NAME, value));
+    return request;
+  }
+
+  private CartCookie.Contents read(String value) {
+    return cookie.read(request(value));
+  }
+
+  private static byte[] payload(String value) {
+    return Base64.getUrlDecoder().decode(value.substring(0, value.indexOf('.')));
+  }
+
+  /** signs the payload the way the server does, as a forger holding the secret could */
+  private static String signed(byte[] payload) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString(payload) + "." + encoder.encodeToString(mac.doFinal(payload));
+  }
+
+  @Test
+  void roundTrip() {
+    String cartId = cookie.newCartId();
+    CartCookie.Contents contents = read(written(cartId, Map.of(1L, 3, 42L, 1)));
+
+    assertNotNull(contents);
+    assertEquals(cartId, contents.cartId());
+    assertEquals(Map.of(1L, 3, 42L, 1), contents.items());
+    assertTrue(System.currentTimeMillis() - contents.issuedAt() < 60_000);
+  }
+
+  @Test
+  void aFlippedByteIsRejected() {
+    String value = written(cookie.newCartId(), Map.of(1L, 3));
+    byte[] payload = payload(value);
+    payload[payload.length - 1] ^= 1;
+    String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(payload)
+        + value.substring(value.indexOf('.'));
+
+    assertNull(read(tampered));
+    assertNull(new CartCookie(true, "another-secret", true).read(request(value)));
+  }
+
+  @Test
+  void anExpiredCookieIsRejected() throws Exception {
+    byte[] payload = payload(written(cookie.newCartId(), Map.of(1L, 3)));
+    ByteBuffer.wrap(payload).putLong(1, System.currentTimeMillis() - CartService.CART_TTL_MS - 1);
+
+    assertNull(read(signed(payload)));
+  }
+
+  @Test
+  void theOldLayoutIsRejected() throws Exception {
+    byte[] payload = payload(written(cookie.newCartId(), Map.of(1L, 3)));
+    payload[0] = 1;
+
+    assertNull(read(signed(payload)));
+  }
+
+  @Test
+  void anOversizedCartIsCutToFitACookie() {
+    Map<Long, Integer> items = new LinkedHashMap<>();
+    for (long id = 1; id <= 500; id++) {
+      items.put(id, 1);
+    }
+    String value = written(cookie.newCartId(), items);
+
+    assertTrue(value.length() < 4096, "cookie is " + value.length() + " bytes");
+    CartCookie.Contents contents = read(value);
+    assertEquals(200, contents.items().size());
+    assertTrue(contents.items().containsKey(1L));
+  }
+}
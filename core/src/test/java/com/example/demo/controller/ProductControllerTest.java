@@ -0,0 +1,131 @@
+package com.example.demo.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import com.example.demo.model.Product;
+import com.example.demo.repository.ProductRepository;
+import com.example.demo.service.CartService;
+import com.example.demo.service.InventoryMemory;
+import com.example.demo.service.ProductCatalog;
+import com.example.demo.service.ProductService;
+import com.example.demo.service.ReservationJournal;
+import com.example.demo.service.StockLeaseService;
+
+/** Catalog reads answered from the snapshot's ETag, and a new ETag after a write. */
+class ProductControllerTest {
+
+  private final List<ProductRepository.CatalogEntry> rows = new ArrayList<>();
+  private final ProductRepository repository = mock(ProductRepository.class);
+  private final ProductCatalog catalog = new ProductCatalog(repository);
+
+  @BeforeEach
+  void setUp() {
+    when(repository.findCatalogEntries()).thenAnswer(call -> List.copyOf(rows));
+    row(1, "mug");
+    catalog.refresh();
+  }
+
+  private void row(long id, String name) {
+    Map<String, Object> r = new HashMap<>();
+    r.put("id", id);
+    r.put("name", name);
+    r.put("category", "Kitchen");
+    r.put("price", BigDecimal.TEN);
+    r.put("quantity", 5);
+    r.put("productArchived", false);
+    rows.add(new SpelAwareProxyProjectionFactory().createProjection(ProductRepository.CatalogEntry.class, r));
+  }
+
+  /** One GET of the product list; the ETag lands on the servlet response, not the entity. */
+  private static final class Call {
+    final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+    final ServletWebRequest request;
+
+    Call(String ifNoneMatch) {
+      MockHttpServletRequest servletRequest = new MockHttpServletRequest("GET", "/api/products");
+      if (ifNoneMatch != null) {
+        servletRequest.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+      }
+      request = new ServletWebRequest(servletRequest, servletResponse);
+    }
+
+    String etag() {
+      return servletResponse.getHeader(HttpHeaders.ETAG);
+    }
+  }
+
+  @Test
+  void aMatchingETagIsAnsweredWithoutTheRepository() {
+    ProductService productService = mock(ProductService.class);
+    when(productService.getCatalog()).thenAnswer(call -> catalog.current());
+    ProductController controller = new ProductController(productService, repository);
+    clearInvocations(repository);
+
+    Call call = new Call(catalog.current().etag());
+    ResponseEntity<List<Product>> response = controller.getAllProducts(null, null, null, call.request);
+
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    verify(productService).getCatalog();
+    verifyNoMoreInteractions(productService);
+    verifyNoInteractions(repository);
+  }
+
+  @Test
+  void aWriteChangesTheETag() {
+    InventoryMemory inventory = new InventoryMemory();
+    StockLeaseService leases = new StockLeaseService(inventory, null, null, "local", 10, 0, 60_000, "");
+    CartService carts = new CartService(inventory, null, new ReservationJournal(false, "target/journal"));
+    ProductService productService = new ProductService(repository, null, inventory, carts, catalog, null, null,
+        null, leases);
+    when(repository.save(any(Product.class))).thenAnswer(call -> {
+      Product saved = call.getArgument(0);
+      saved.setId(2L);
+      row(2, saved.getName());
+      return saved;
+    });
+    ProductController controller = new ProductController(productService, repository);
+
+    Call first = new Call(null);
+    assertEquals(HttpStatus.OK, controller.getAllProducts(null, null, null, first.request).getStatusCode());
+    String before = first.etag();
+    assertNotNull(before);
+
+    Product bowl = new Product();
+    bowl.setName("bowl");
+    bowl.setCategory("Kitchen");
+    bowl.setPrice(BigDecimal.TEN);
+    bowl.setQuantity(3);
+    productService.saveProduct(bowl);
+
+    Call second = new Call(before);
+    ResponseEntity<List<Product>> response = controller.getAllProducts(null, null, null, second.request);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(2, response.getBody().size());
+    assertNotEquals(before, second.etag());
+  }
+}
@@ -0,0 +1,65 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/** Cart events rolled up by {@link CartAnalytics}, and silence until someone starts a window. */
+class CartAnalyticsTest {
+
+  private static CartService carts() {
+    InventoryMemory inventory = new InventoryMemory();
+    inventory.setStock(1, 100);
+    inventory.setStock(2, 100);
+    return new CartService(inventory, null, new ReservationJournal(false, "target/journal"));
+  }
+
+  @Test
+  void nothingIsRecordedUntilStarted() {
+    CartService carts = carts();
+    CartAnalytics analytics = new CartAnalytics(carts, 60_000);
+    carts.addUpTo("s1", 1, 3);
+
+    // reading alone does not arm the ring
+    Map<String, Object> first = analytics.getStats();
+    assertEquals(false, first.get("recording"));
+    assertEquals(3L, first.get("heldUnits"));
+    carts.addUpTo("s1", 2, 1);
+    assertEquals(0L, analytics.getStats().get("events"));
+
+    analytics.start();
+    carts.addUpTo("s1", 2, 1);
+    assertEquals(1L, analytics.getStats().get("events"));
+  }
+
+  @Test
+  void rollsUpReservationsAndHowCartsEnded() {
+    CartService carts = carts();
+    CartAnalytics analytics = new CartAnalytics(carts, 60_000);
+    analytics.start();
+
+    carts.addUpTo("abandoned", 1, 4);
+    carts.addUpTo("buyer", 1, 2);
+    carts.addUpTo("browser", 2, 5);
+    carts.removeUpTo("browser", 2, 5);
+    carts.clearOnly("buyer");
+    carts.expireAbandonedCarts(System.currentTimeMillis() + 21 * 60 * 1000);
+
+    Map<String, Object> stats = analytics.getStats();
+    assertEquals(6L, stats.get("events"));
+    assertEquals(11L, stats.get("reservedUnits"));
+    assertEquals(4L, stats.get("expiredUnits"));
+    assertEquals(2L, stats.get("checkedOutUnits"));
+    assertEquals(5L, stats.get("releasedUnits"));
+
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> products = (List<Map<String, Object>>) stats.get("products");
+    Map<String, Object> top = products.get(0);
+    assertEquals(1L, top.get("productId"));
+    assertEquals(4.0 / 6, (double) top.get("expiryRate"), 1e-9);
+    assertEquals(0.0, (double) products.get(1).get("expiryRate"));
+  }
+}
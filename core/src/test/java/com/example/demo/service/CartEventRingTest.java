@@ -0,0 +1,56 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/** Writers lapping a small ring while it is drained: no event is delivered torn, none is lost uncounted. */
+class CartEventRingTest {
+
+  private static final int WRITERS = 4;
+  private static final int EVENTS = 200_000;
+
+  @Test
+  void lappedEventsAreDroppedNeverTorn() throws Exception {
+    CartEventRing ring = new CartEventRing(2);
+    ring.armed = true;
+
+    ExecutorService pool = Executors.newFixedThreadPool(WRITERS);
+    List<Future<?>> writers = new ArrayList<>();
+    AtomicLong value = new AtomicLong();
+    for (int w = 0; w < WRITERS; w++) {
+      writers.add(pool.submit(() -> {
+        for (int i = 0; i < EVENTS; i++) {
+          // every field derived from one number, so a mixed copy shows
+          long v = value.incrementAndGet();
+          ring.publish(CartEventRing.RESERVE, v, (int) v, -v);
+        }
+      }));
+    }
+
+    long[] delivered = new long[1];
+    CartEventRing.Sink check = (type, productId, units, heldMs) -> {
+      assertEquals(CartEventRing.RESERVE, type);
+      assertEquals((int) productId, units, "torn event");
+      assertEquals(-productId, heldMs, "torn event");
+      delivered[0]++;
+    };
+    while (!writers.stream().allMatch(Future::isDone)) {
+      ring.drain(check);
+    }
+    for (Future<?> f : writers) {
+      f.get();
+    }
+    pool.shutdown();
+    ring.drain(check);
+
+    assertEquals((long) WRITERS * EVENTS, delivered[0] + ring.dropped());
+  }
+}
@@ -0,0 +1,125 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.repository.ProductRepository;
+
+/**
+ * Many tabs of one session hitting every cart mutation at once. However the
+ * calls interleave, each unit is either on the shelf or in the cart.
+ */
+class CartServiceStressTest {
+
+  private static final int THREADS = 16;
+  private static final int OPS = 20_000;
+  private static final int STOCK = 1_000;
+  private static final long[] PRODUCTS = { 1, 2, 3 };
+  private static final String SID = "session";
+
+  /** cart summaries are not under test; every lookup comes back empty */
+  private static ProductRepository noProducts() {
+    return (ProductRepository) Proxy.newProxyInstance(ProductRepository.class.getClassLoader(),
+        new Class<?>[] { ProductRepository.class }, (proxy, method, args) -> List.of());
+  }
+
+  /** the in-memory store, counting the carts the sweep gets to release */
+  private static CartStore countingExpiries(AtomicInteger expired) {
+    CartStore store = new InMemoryCartStore();
+    return (CartStore) Proxy.newProxyInstance(CartStore.class.getClassLoader(), new Class<?>[] { CartStore.class },
+        (proxy, method, args) -> {
+          Object result = method.invoke(store, args);
+          if (method.getName().equals("claimExpiry") && Boolean.TRUE.equals(result)) {
+            expired.incrementAndGet();
+          }
+          return result;
+        });
+  }
+
+  @Test
+  void oneSessionFromManyThreadsConservesStock() throws Exception {
+    InventoryMemory inventory = new InventoryMemory();
+    for (long id : PRODUCTS) {
+      inventory.setStock(id, STOCK);
+    }
+    inventory.setHot(3, true);
+    AtomicInteger expired = new AtomicInteger();
+    CartService carts = new CartService(inventory, noProducts(), new ReservationJournal(false, "target/journal"),
+        countingExpiries(expired));
+
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> tabs = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      tabs.add(pool.submit(() -> {
+        start.await();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < OPS; i++) {
+          long id = PRODUCTS[rnd.nextInt(PRODUCTS.length)];
+          switch (rnd.nextInt(7)) {
+            case 0 -> carts.addOne(SID, id);
+            case 1 -> carts.removeOne(SID, id);
+            case 2 -> carts.addUpTo(SID, id, 1 + rnd.nextInt(5));
+            case 3 -> carts.removeUpTo(SID, id, 1 + rnd.nextInt(5));
+            case 4 -> {
+              Map<Long, Integer> batch = new LinkedHashMap<>();
+              batch.put(id, rnd.nextInt(-4, 5));
+              batch.put(PRODUCTS[rnd.nextInt(PRODUCTS.length)], rnd.nextInt(-4, 5));
+              carts.applyBatch(SID, batch);
+            }
+            case 5 -> {
+              if (rnd.nextInt(50) == 0) {
+                carts.releaseAll(SID);
+              }
+            }
+            default -> carts.getItems(SID);
+          }
+        }
+        return null;
+      }));
+    }
+    // the scheduled sweep on a clock a TTL ahead and gaining a second per run,
+    // so the cart touched since the last run is due again on this one
+    Future<?> sweeper = pool.submit(() -> {
+      start.await();
+      long clock = System.currentTimeMillis() + CartService.CART_TTL_MS;
+      while (!tabs.stream().allMatch(Future::isDone)) {
+        clock += 1_000;
+        carts.expireAbandonedCarts(clock);
+        Thread.sleep(1);
+      }
+      return null;
+    });
+
+    start.countDown();
+    for (Future<?> f : tabs) {
+      f.get();
+    }
+    sweeper.get();
+    pool.shutdown();
+    assertTrue(expired.get() > 0, "the sweep never released a cart");
+
+    Map<Long, Integer> held = carts.getHeldUnits();
+    for (long id : PRODUCTS) {
+      assertEquals(STOCK, inventory.getAvailable(id) + held.getOrDefault(id, 0), "product " + id);
+    }
+    carts.releaseAll(SID);
+    for (long id : PRODUCTS) {
+      assertEquals(STOCK, inventory.getAvailable(id), "product " + id + " after release");
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/** Deadlines come due within one tick, and a sweep only looks at what is due. */
+class ExpiryWheelTest {
+
+  private static final long TICK = 100;
+  private static final long START = 1_000_000;
+
+  /** 16 buckets of 100 ms: one revolution is 1.6 s */
+  private static ExpiryWheel<String> wheel() {
+    return new ExpiryWheel<>(TICK, 1_000, START);
+  }
+
+  @Test
+  void expiresWithinATickOfTheDeadline() {
+    ExpiryWheel<String> wheel = wheel();
+    wheel.schedule("a", START + 250);
+    wheel.schedule("b", START + 650);
+
+    assertTrue(wheel.advance(START + 249).isEmpty());
+    assertEquals(List.of("a"), wheel.advance(START + 250 + TICK));
+    assertTrue(wheel.advance(START + 600).isEmpty());
+    assertEquals(List.of("b"), wheel.advance(START + 650 + TICK));
+  }
+
+  @Test
+  void aTouchedKeyIsDueAgainAtItsNewDeadline() {
+    ExpiryWheel<String> wheel = wheel();
+    wheel.schedule("cart", START + 300);
+
+    // the sweep finds it touched since and puts it back, as CartService does
+    assertEquals(List.of("cart"), wheel.advance(START + 400));
+    wheel.schedule("cart", START + 900);
+
+    assertTrue(wheel.advance(START + 899).isEmpty());
+    assertEquals(List.of("cart"), wheel.advance(START + 1_000));
+    assertTrue(wheel.advance(START + 5_000).isEmpty());
+  }
+
+  @Test
+  void deadlinesBeyondOneRevolutionWaitTheirTurn() {
+    ExpiryWheel<String> wheel = wheel();
+    wheel.schedule("far", START + 5_050);
+    wheel.schedule("near", START + 50);
+
+    // passes the far entry's bucket three times before its deadline
+    assertEquals(List.of("near"), wheel.advance(START + 100));
+    assertTrue(wheel.advance(START + 2_000).isEmpty());
+    assertTrue(wheel.advance(START + 4_000).isEmpty());
+    assertTrue(wheel.advance(START + 5_049).isEmpty());
+    assertEquals(List.of("far"), wheel.advance(START + 5_050 + TICK));
+  }
+
+  @Test
+  void aSweepLooksOnlyAtDueEntries() {
+    ExpiryWheel<String> wheel = wheel();
+    for (int i = 0; i < 10_000; i++) {
+      wheel.schedule("later-" + i, START + 900);
+    }
+    for (int i = 0; i < 3; i++) {
+      wheel.schedule("due-" + i, START + 150);
+    }
+
+    assertEquals(3, wheel.advance(START + 500).size());
+    assertEquals(3, wheel.visited());
+    assertEquals(10_000, wheel.advance(START + 1_000).size());
+    assertEquals(10_003, wheel.visited());
+  }
+}
@@ -0,0 +1,92 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.demo.repository.ProductRepository;
+
+/** Drift between the counters and the product table is corrected only once two runs agree on it. */
+class InventoryReconcilerTest {
+
+  /** productId -> product.quantity, as the stubbed repository reports it */
+  private final Map<Long, Integer> table = new LinkedHashMap<>();
+
+  private ProductRepository repository() {
+    return (ProductRepository) Proxy.newProxyInstance(ProductRepository.class.getClassLoader(),
+        new Class<?>[] { ProductRepository.class }, (proxy, method, args) -> {
+          if (method.getName().equals("findActiveStockLevels")) {
+            List<ProductRepository.StockLevel> levels = new ArrayList<>();
+            table.forEach((id, qty) -> levels.add(new ProductRepository.StockLevel() {
+              @Override
+              public Long getId() {
+                return id;
+              }
+
+              @Override
+              public Integer getQuantity() {
+                return qty;
+              }
+            }));
+            return levels;
+          }
+          return List.of();
+        });
+  }
+
+  @Test
+  void driftIsCorrectedOnTheSecondMatchingRun() {
+    InventoryMemory inventory = new InventoryMemory();
+    inventory.setStock(1, 10);
+    inventory.setStock(2, 10);
+    CartService carts = new CartService(inventory, repository(), new ReservationJournal(false, "target/journal"));
+    InventoryReconciler reconciler = new InventoryReconciler(repository(), inventory, carts,
+        new StockLeaseService(inventory, null, null, "local", 10, 0, 60_000, ""));
+
+    carts.addUpTo("s1", 1, 3);
+    table.put(1L, 10);
+    // two units of product 2 sold somewhere the counter never heard of
+    table.put(2L, 8);
+
+    reconciler.reconcile();
+    assertEquals(10, inventory.getAvailable(2));
+    assertEquals(Map.of(2L, 2), reconciler.getStats().get("lastDrift"));
+    assertEquals(0L, reconciler.getStats().get("driftsCorrected"));
+
+    reconciler.reconcile();
+    assertEquals(8, inventory.getAvailable(2));
+    assertEquals(7, inventory.getAvailable(1));
+
+    Map<String, Object> stats = reconciler.getStats();
+    assertEquals(2L, stats.get("runs"));
+    assertEquals(4L, stats.get("productsChecked"));
+    assertEquals(2L, stats.get("driftsDetected"));
+    assertEquals(1L, stats.get("driftsCorrected"));
+    assertEquals(2L, stats.get("unitsCorrected"));
+  }
+
+  @Test
+  void aDriftThatChangesBetweenRunsWaitsForTheNextOne() {
+    InventoryMemory inventory = new InventoryMemory();
+    inventory.setStock(1, 10);
+    CartService carts = new CartService(inventory, repository(), new ReservationJournal(false, "target/journal"));
+    InventoryReconciler reconciler = new InventoryReconciler(repository(), inventory, carts,
+        new StockLeaseService(inventory, null, null, "local", 10, 0, 60_000, ""));
+
+    table.put(1L, 8);
+    reconciler.reconcile();
+    table.put(1L, 9);
+    reconciler.reconcile();
+    assertEquals(10, inventory.getAvailable(1));
+
+    reconciler.reconcile();
+    assertEquals(9, inventory.getAvailable(1));
+    assertEquals(1L, reconciler.getStats().get("driftsCorrected"));
+  }
+}
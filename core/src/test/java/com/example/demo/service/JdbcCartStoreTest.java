@@ -0,0 +1,194 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/** Two nodes sharing carts and leasing stock through the JDBC store, on the H2 migrations. */
+class JdbcCartStoreTest {
+
+  private DataSource dataSource;
+  private final AtomicInteger queries = new AtomicInteger();
+
+  @BeforeEach
+  void setUp() {
+    dataSource = new DriverManagerDataSource("jdbc:h2:mem:carts;DB_CLOSE_DELAY=-1");
+    JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    jdbc.execute("drop table if exists cart_line");
+    jdbc.execute("drop table if exists cart_session");
+    jdbc.execute("drop table if exists stock_lease");
+    jdbc.execute("drop table if exists product");
+    jdbc.execute("create table product (id bigint primary key, quantity integer not null, "
+        + "product_archived boolean not null default false)");
+    jdbc.update("insert into product (id, quantity) values (1, 100), (2, 100)");
+    new ResourceDatabasePopulator(
+        new ClassPathResource("db/migration/h2/V12__create_cart_store_tables.sql"),
+        new ClassPathResource("db/migration/h2/V15__create_stock_lease_table.sql"),
+        new ClassPathResource("db/migration/h2/V16__add_cart_session_node.sql"),
+        new ClassPathResource("db/migration/h2/V17__index_cart_session_node.sql"))
+        .execute(dataSource);
+    queries.set(0);
+  }
+
+  /** One application node: its own counters and lease, the shared tables. */
+  private final class Node {
+    final InventoryMemory inventory = new InventoryMemory();
+    final StockLeaseService leases;
+    final JdbcCartStore store;
+    final CartService carts;
+
+    Node(long nearCacheMs) {
+      this(nearCacheMs, 60_000);
+    }
+
+    Node(long nearCacheMs, long leaseTtlMs) {
+      JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+      DataSourceTransactionManager transactions = new DataSourceTransactionManager(dataSource);
+      leases = new StockLeaseService(inventory, jdbc, transactions, "leased", 10, 0, leaseTtlMs, "");
+      leases.start();
+      store = store(leases, nearCacheMs);
+      carts = new CartService(inventory, null, new ReservationJournal(false, "target/journal"), store);
+    }
+  }
+
+  private JdbcCartStore store(StockLeaseService leases, long nearCacheMs) {
+    JdbcTemplate counting = new JdbcTemplate(dataSource) {
+      @Override
+      public <T> T query(String sql, ResultSetExtractor<T> rse, Object... args) {
+        queries.incrementAndGet();
+        return super.query(sql, rse, args);
+      }
+    };
+    return new JdbcCartStore(counting, new DataSourceTransactionManager(dataSource), leases, nearCacheMs);
+  }
+
+  /** every unit of product 1 left in the pool or a lease, once the given nodes have shut down */
+  private int unitsAfterShutdown(Node... nodes) {
+    for (Node n : nodes) {
+      n.store.flush();
+      n.leases.returnAllLeases();
+    }
+    JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    return jdbc.queryForObject("select quantity from product where id = 1", Integer.class)
+        + jdbc.queryForObject("select coalesce(sum(units), 0) from stock_lease where product_id = 1", Integer.class);
+  }
+
+  @Test
+  void refusesToStartWithoutLeasedInventory() {
+    StockLeaseService local = new StockLeaseService(new InventoryMemory(), new JdbcTemplate(dataSource),
+        new DataSourceTransactionManager(dataSource), "local", 10, 0, 60_000, "");
+    assertThrows(IllegalStateException.class, () -> store(local, 0));
+  }
+
+  @Test
+  void cartFollowsTheSessionToAnotherNode() {
+    Node a = new Node(60_000);
+    Node b = new Node(60_000);
+
+    a.carts.addUpTo("s1", 1, 3);
+    a.carts.addOne("s1", 2);
+    a.store.flush();
+
+    assertEquals(Map.of(1L, 3, 2L, 1), b.carts.getItems("s1"));
+    b.carts.removeUpTo("s1", 1, 2);
+    b.store.flush();
+
+    // a node with no near-cache window reads the row every time
+    assertEquals(Map.of(1L, 1, 2L, 1), new Node(0).carts.getItems("s1"));
+  }
+
+  @Test
+  void removingACartOnTheOtherNodeCreatesNoStock() {
+    Node a = new Node(60_000);
+    Node b = new Node(60_000);
+
+    a.carts.addUpTo("s1", 1, 5);
+    a.store.flush();
+    assertEquals(5, b.carts.getQty("s1", 1));
+    b.carts.releaseAll("s1");
+
+    assertEquals(100, unitsAfterShutdown(a, b));
+  }
+
+  @Test
+  void readsAreServedFromTheNearCache() {
+    Node node = new Node(60_000);
+    CartService carts = node.carts;
+    carts.addOne("s1", 1);
+    node.store.flush();
+
+    carts.getItems("nobody");
+    int before = queries.get();
+    for (int i = 0; i < 1_000; i++) {
+      carts.getQty("s1", 1);
+      carts.getItems("s1");
+      carts.getItems("nobody");
+    }
+    assertEquals(before, queries.get());
+  }
+
+  @Test
+  void releasedCartsLeaveTheTables() {
+    Node node = new Node(60_000);
+    node.carts.addOne("s1", 1);
+    node.store.flush();
+    node.carts.releaseAll("s1");
+    node.store.flush();
+
+    JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    assertEquals(0, jdbc.queryForObject("select count(*) from cart_session", Integer.class));
+    assertEquals(0, jdbc.queryForObject("select count(*) from cart_line", Integer.class));
+  }
+
+  @Test
+  void onlyOneNodeReleasesAnAbandonedCart() {
+    Node a = new Node(60_000);
+    Node b = new Node(60_000);
+
+    a.carts.addUpTo("s1", 1, 5);
+    a.store.flush();
+    assertEquals(5, b.carts.getQty("s1", 1));
+
+    long later = System.currentTimeMillis() + 21 * 60 * 1000;
+    a.carts.expireAbandonedCarts(later);
+    b.carts.expireAbandonedCarts(later);
+
+    assertTrue(a.carts.getItems("s1").isEmpty());
+    assertEquals(100, unitsAfterShutdown(a, b));
+  }
+
+  @Test
+  void aDeadNodesCartGivesItsUnitsBackOnceAbandoned() throws Exception {
+    Node dead = new Node(60_000, 1);
+    Node b = new Node(60_000);
+
+    dead.carts.addUpTo("s1", 1, 5);
+    dead.store.flush();
+    Thread.sleep(5);
+
+    // the lease is reclaimed but the live cart keeps its units
+    b.leases.returnIdleLeases();
+    JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    assertEquals(95, jdbc.queryForObject("select quantity from product where id = 1", Integer.class));
+
+    jdbc.update("update cart_session set last_touched = last_touched - ?", 21 * 60 * 1000);
+    b.leases.returnIdleLeases();
+
+    assertEquals(0, jdbc.queryForObject("select count(*) from cart_line", Integer.class));
+    assertEquals(100, unitsAfterShutdown(b));
+  }
+}
@@ -0,0 +1,103 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Resized copies made from a stored picture. */
+class PictureDerivativesTest {
+
+  @TempDir
+  Path dir;
+
+  private static byte[] png(int width, int height, int type) throws Exception {
+    BufferedImage image = new BufferedImage(width, height, type);
+    for (int x = 0; x < width; x += 7) {
+      image.setRGB(x, x % height, 0xff3366cc);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+
+  @Test
+  void makesEveryWidthKeepingTheAspectRatio() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    PictureDerivatives derivatives = new PictureDerivatives(store, 1, 10);
+    String hash = store.put(new ByteArrayInputStream(png(3000, 1500, BufferedImage.TYPE_INT_RGB)));
+
+    derivatives.make(hash);
+
+    for (int w : PictureDerivatives.WIDTHS) {
+      Path copy = store.derivative(hash, w).orElseThrow();
+      assertTrue(copy.toString().endsWith(".jpg"));
+      BufferedImage read = ImageIO.read(copy.toFile());
+      assertEquals(w, read.getWidth());
+      assertEquals(w / 2, read.getHeight());
+    }
+    derivatives.shutdown();
+  }
+
+  @Test
+  void transparentPicturesStayPngAndSmallOnesAreNotEnlarged() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    PictureDerivatives derivatives = new PictureDerivatives(store, 1, 10);
+    String hash = store.put(new ByteArrayInputStream(png(400, 300, BufferedImage.TYPE_INT_ARGB)));
+
+    derivatives.make(hash);
+
+    Path large = store.derivative(hash, 1200).orElseThrow();
+    assertTrue(large.toString().endsWith(".png"));
+    assertEquals(400, ImageIO.read(large.toFile()).getWidth());
+    assertEquals(200, ImageIO.read(store.derivative(hash, 200).orElseThrow().toFile()).getWidth());
+    derivatives.shutdown();
+  }
+
+  @Test
+  void anUnreadablePictureIsMarkedAndNotTriedAgain() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    PictureDerivatives derivatives = new PictureDerivatives(store, 1, 10);
+    String hash = store.put(new ByteArrayInputStream("not a picture".getBytes(StandardCharsets.UTF_8)));
+
+    derivatives.make(hash);
+
+    assertTrue(store.failed(hash));
+    assertTrue(store.derivative(hash, 200).isEmpty());
+    derivatives.shutdown();
+  }
+
+  @Test
+  void aMissingOriginalIsNotMarked() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    PictureDerivatives derivatives = new PictureDerivatives(store, 1, 10);
+    byte[] picture = png(400, 300, BufferedImage.TYPE_INT_RGB);
+    String hash = new PictureStore(dir.resolve("elsewhere").toString()).put(new ByteArrayInputStream(picture));
+
+    derivatives.make(hash);
+    assertFalse(store.failed(hash));
+
+    // once the original is copied in, the copies are made
+    store.put(new ByteArrayInputStream(picture));
+    derivatives.make(hash);
+    assertTrue(store.derivative(hash, 200).isPresent());
+    derivatives.shutdown();
+  }
+
+  @Test
+  void requestedSizesRoundUpToAMadeWidth() {
+    assertEquals(200, PictureDerivatives.widthFor(64));
+    assertEquals(600, PictureDerivatives.widthFor(201));
+    assertEquals(1200, PictureDerivatives.widthFor(5000));
+  }
+}
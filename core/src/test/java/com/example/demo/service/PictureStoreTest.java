@@ -0,0 +1,63 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Content-addressed picture files. */
+class PictureStoreTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void identicalPicturesShareOneFile() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    byte[] png = "not really a png".getBytes(StandardCharsets.UTF_8);
+
+    String first = store.put(new ByteArrayInputStream(png));
+    String second = store.put(new ByteArrayInputStream(png.clone()));
+
+    assertEquals(first, second);
+    assertTrue(store.contains(first));
+    assertArrayEquals(png, Files.readAllBytes(store.path(first)));
+    try (var files = Files.walk(dir)) {
+      assertEquals(1, files.filter(Files::isRegularFile).count());
+    }
+  }
+
+  @Test
+  void streamedPicturesAreHashedOnTheWayIn() throws Exception {
+    PictureStore store = new PictureStore(dir.toString());
+    byte[] big = new byte[300_000];
+    new Random(7).nextBytes(big);
+
+    String hash = store.put(new ByteArrayInputStream(big));
+
+    assertEquals(PictureStore.hash(big), hash);
+    assertEquals(hash, store.put(new ByteArrayInputStream(big)));
+    assertArrayEquals(big, Files.readAllBytes(store.path(hash)));
+    try (var files = Files.walk(dir)) {
+      assertEquals(1, files.filter(Files::isRegularFile).count());
+    }
+  }
+
+  @Test
+  void onlyHashesNameFiles() {
+    PictureStore store = new PictureStore(dir.toString());
+    assertFalse(store.contains(null));
+    assertFalse(store.contains("../../etc/passwd"));
+    assertThrows(IllegalArgumentException.class, () -> store.path("../x"));
+  }
+}
@@ -0,0 +1,95 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import com.example.demo.model.Product;
+import com.example.demo.repository.ProductRepository;
+
+/** Listings served from the catalog snapshot, and the swap and version bump after a reload. */
+class ProductCatalogTest {
+
+  private final List<ProductRepository.CatalogEntry> rows = new ArrayList<>();
+
+  private final ProductRepository repository = (ProductRepository) Proxy.newProxyInstance(
+      ProductRepository.class.getClassLoader(), new Class<?>[] { ProductRepository.class },
+      (proxy, method, args) -> List.copyOf(rows));
+
+  private void row(long id, String name, String category, boolean featured, boolean newArrival,
+      boolean archived) {
+    Map<String, Object> r = new HashMap<>();
+    r.put("id", id);
+    r.put("name", name);
+    r.put("category", category);
+    r.put("price", BigDecimal.TEN);
+    r.put("quantity", 1);
+    r.put("featured", featured);
+    r.put("newArrival", newArrival);
+    r.put("productArchived", archived);
+    rows.add(new SpelAwareProxyProjectionFactory().createProjection(ProductRepository.CatalogEntry.class, r));
+  }
+
+  private static List<Long> ids(List<Product> products) {
+    return products.stream().map(Product::getId).toList();
+  }
+
+  @Test
+  void servesEveryListingFromTheSnapshot() {
+    row(1, "mug", " Kitchen ", true, false, false);
+    row(2, "Bowl", "kitchen", false, true, false);
+    row(3, "lamp", "Decor", true, true, false);
+    row(4, "old mug", "Kitchen", true, true, true);
+    ProductCatalog catalog = new ProductCatalog(repository);
+    catalog.refresh();
+    ProductCatalog.Snapshot s = catalog.current();
+
+    assertEquals(List.of(3L, 2L, 1L), ids(s.active()));
+    assertEquals(List.of(2L, 1L), ids(s.inCategory("KITCHEN")));
+    assertEquals(List.of(3L, 1L), ids(s.featured(null)));
+    assertEquals(List.of(1L), ids(s.featured("kitchen ")));
+    assertEquals(List.of(2L, 3L), ids(s.newArrivals(null)));
+    assertEquals(List.of(3L), ids(s.newArrivals("decor")));
+    assertTrue(s.inCategory("garden").isEmpty());
+    assertTrue(s.get(4).get().isProductArchived());
+  }
+
+  @Test
+  void readersKeepTheSnapshotTheyTook() {
+    row(1, "mug", "Kitchen", false, false, false);
+    ProductCatalog catalog = new ProductCatalog(repository);
+    catalog.refresh();
+    ProductCatalog.Snapshot before = catalog.current();
+
+    row(2, "bowl", "Kitchen", false, false, false);
+    catalog.refresh();
+
+    assertEquals(1, before.active().size());
+    assertEquals(2, catalog.current().active().size());
+  }
+
+  @Test
+  void versionMovesOnlyWhenTheCatalogChanges() {
+    row(1, "mug", "Kitchen", false, false, false);
+    ProductCatalog catalog = new ProductCatalog(repository);
+    catalog.refresh();
+    ProductCatalog.Snapshot first = catalog.current();
+
+    catalog.refresh();
+    assertSame(first, catalog.current());
+
+    row(2, "bowl", "Kitchen", false, false, false);
+    catalog.refresh();
+    assertTrue(catalog.current().version() > first.version());
+  }
+}
@@ -0,0 +1,85 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Holds written to the journal come back after a restart, whatever state the file was left in. */
+class ReservationJournalTest {
+
+  @TempDir
+  Path dir;
+
+  private ReservationJournal journal() {
+    return new ReservationJournal(true, dir.toString());
+  }
+
+  private Path file() {
+    return dir.resolve("reservations.journal");
+  }
+
+  @Test
+  void replayRestoresTheLiveHolds() throws Exception {
+    ReservationJournal journal = journal();
+    journal.replay();
+    journal.delta("s1", 1, 3);
+    journal.delta("s1", 2, 1);
+    journal.delta("s1", 1, -1);
+    journal.delta("s2", 1, 5);
+    journal.clear("s2");
+    journal.delta("s3", 2, 2);
+    journal.delta("s3", 2, -2);
+    journal.close();
+
+    Map<String, ReservationJournal.SessionHolds> holds = journal().replay();
+
+    // an emptied cart comes back with no lines; CartService clears it on startup
+    assertEquals(Set.of("s1", "s3"), holds.keySet());
+    assertTrue(holds.get("s3").items.isEmpty());
+    assertEquals(Map.of(1L, 2, 2L, 1), holds.get("s1").items);
+    assertTrue(holds.get("s1").lastTouched > 0);
+  }
+
+  @Test
+  void aTornTailIsDroppedAndTheRestKept() throws Exception {
+    ReservationJournal journal = journal();
+    journal.replay();
+    journal.delta("s1", 1, 4);
+    journal.close();
+
+    // a crash in the middle of the next record: type, timestamp, half a length
+    Files.write(file(), new byte[] { 'D', 0, 0, 0, 0, 0, 0, 0, 1, 0 }, StandardOpenOption.APPEND);
+
+    ReservationJournal reopened = journal();
+    assertEquals(Map.of(1L, 4), reopened.replay().get("s1").items);
+    reopened.delta("s1", 1, 1);
+    reopened.close();
+
+    // the tail was cut away, so what follows it is readable too
+    assertEquals(Map.of(1L, 5), journal().replay().get("s1").items);
+  }
+
+  @Test
+  void compactionKeepsOnlyTheLiveHolds() throws Exception {
+    ReservationJournal journal = new ReservationJournal(true, dir.toString(), 16 * 1024);
+    journal.replay();
+    for (int i = 0; i < 40_000; i++) {
+      journal.delta("busy", 1, 1);
+      journal.delta("busy", 1, -1);
+    }
+    journal.delta("busy", 2, 7);
+    journal.close();
+
+    // 80,000 records of ~25 bytes uncompacted
+    assertTrue(Files.size(file()) < 256 * 1024, "journal was never compacted: " + Files.size(file()));
+    assertEquals(Map.of(2L, 7), journal().replay().get("busy").items);
+  }
+}
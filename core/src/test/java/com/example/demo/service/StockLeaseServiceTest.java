@@ -0,0 +1,147 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/** Two nodes leasing from one product row must never sell the same unit. */
+class StockLeaseServiceTest {
+
+  private JdbcTemplate jdbc;
+  private DataSourceTransactionManager transactions;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:lease;DB_CLOSE_DELAY=-1");
+    jdbc = new JdbcTemplate(ds);
+    transactions = new DataSourceTransactionManager(ds);
+    jdbc.execute("drop table if exists stock_lease");
+    jdbc.execute("drop table if exists product");
+    jdbc.execute("drop table if exists cart_line");
+    jdbc.execute("drop table if exists cart_session");
+    jdbc.execute("create table product (id bigint primary key, quantity integer not null, "
+        + "product_archived boolean not null default false)");
+    for (String script : new String[] { "V12__create_cart_store_tables", "V15__create_stock_lease_table",
+        "V16__add_cart_session_node", "V17__index_cart_session_node" }) {
+      jdbc.execute(new String(getClass().getResourceAsStream("/db/migration/h2/" + script + ".sql")
+          .readAllBytes(), StandardCharsets.UTF_8));
+    }
+    jdbc.update("insert into product (id, quantity) values (1, 100)");
+  }
+
+  private StockLeaseService node(InventoryMemory inventory) {
+    return node(inventory, 60_000);
+  }
+
+  private StockLeaseService node(InventoryMemory inventory, long ttlMs) {
+    StockLeaseService leases = new StockLeaseService(inventory, jdbc, transactions, "leased", 7, 0, ttlMs, "");
+    leases.start();
+    return leases;
+  }
+
+  private int pool() {
+    return jdbc.queryForObject("select quantity from product where id = 1", Integer.class);
+  }
+
+  private int leased() {
+    return jdbc.queryForObject("select coalesce(sum(units), 0) from stock_lease where product_id = 1", Integer.class);
+  }
+
+  @Test
+  void twoNodesNeverOversell() throws Exception {
+    InventoryMemory a = new InventoryMemory();
+    InventoryMemory b = new InventoryMemory();
+    node(a);
+    node(b);
+
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      InventoryMemory inv = t % 2 == 0 ? a : b;
+      results.add(pool.submit(() -> {
+        int got = 0;
+        while (inv.reserveOne(1)) {
+          got++;
+        }
+        return got;
+      }));
+    }
+    int sold = 0;
+    for (Future<Integer> f : results) {
+      sold += f.get();
+    }
+    pool.shutdown();
+
+    assertEquals(100, sold);
+    assertEquals(0, jdbc.queryForObject("select quantity from product where id = 1", Integer.class));
+  }
+
+  @Test
+  void unsoldUnitsGoBackToThePool() {
+    InventoryMemory a = new InventoryMemory();
+    StockLeaseService leasesA = node(a);
+
+    assertEquals(3, a.reserveUpTo(1, 3));
+    assertEquals(93, jdbc.queryForObject("select quantity from product where id = 1", Integer.class));
+
+    a.release(1, 1);
+    leasesA.returnIdleLeases();
+
+    assertEquals(98, jdbc.queryForObject("select quantity from product where id = 1", Integer.class));
+    assertEquals(98, a.getAvailable(1));
+    assertEquals(2, leased());
+  }
+
+  @Test
+  void aDeadNodesLeaseIsReclaimed() throws Exception {
+    InventoryMemory a = new InventoryMemory();
+    node(a, 1);
+    assertEquals(3, a.reserveUpTo(1, 3));
+    assertEquals(93, pool());
+    assertEquals(7, leased());
+
+    // node a stops renewing without returning anything
+    Thread.sleep(5);
+    InventoryMemory b = new InventoryMemory();
+    node(b).returnIdleLeases();
+
+    assertEquals(100, pool());
+    assertEquals(0, leased());
+  }
+
+  @Test
+  void soldUnitsLeaveTheLease() {
+    InventoryMemory a = new InventoryMemory();
+    StockLeaseService leasesA = node(a);
+    assertEquals(3, a.reserveUpTo(1, 3));
+
+    leasesA.sold(1, 3);
+    leasesA.returnAllLeases();
+
+    assertEquals(97, pool());
+    assertEquals(0, leased());
+  }
+
+  @Test
+  void quantityEditsMoveThePoolByTheDifference() {
+    InventoryMemory a = new InventoryMemory();
+    StockLeaseService leasesA = node(a);
+    assertEquals(1, a.reserveUpTo(1, 1));
+    assertEquals(93, pool());
+
+    // an admin who saw 100 sets 110 while 7 units are leased out
+    assertEquals(103, leasesA.adjustPool(1, 110 - 100));
+    assertEquals(0, leasesA.adjustPool(1, -1000));
+  }
+}
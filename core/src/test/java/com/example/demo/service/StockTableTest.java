@@ -0,0 +1,44 @@
+package com.example.demo.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+/** The empty-slot marker must never be mistaken for a stored id. */
+class StockTableTest {
+
+  private static final long EMPTY = StockTable.EMPTY;
+
+  @Test
+  void emptyMarkerIsAbsentInAFreshTable() {
+    StockTable table = new StockTable();
+    assertFalse(table.contains(EMPTY));
+    assertEquals(-1, table.get(EMPTY, -1));
+    assertFalse(table.decrementIfPositive(EMPTY));
+    assertEquals(0, table.takeUpTo(EMPTY, 3));
+    table.add(EMPTY, 5);
+    table.put(EMPTY, 5);
+    assertFalse(table.putIfAbsent(EMPTY, 5));
+    assertFalse(table.contains(EMPTY));
+  }
+
+  @Test
+  void emptyMarkerNeverReachesAnotherProductsCounter() {
+    StockTable table = new StockTable();
+    table.put(1, 10);
+
+    assertFalse(table.decrementIfPositive(EMPTY));
+    assertEquals(0, table.takeUpTo(EMPTY, 4));
+    assertFalse(table.addIfPresent(EMPTY, 7));
+    assertFalse(table.compareAndSet(EMPTY, 10, 0));
+    assertEquals(0, table.get(EMPTY, 0));
+    assertEquals(10, table.get(1, 0));
+
+    InventoryMemory inventory = new InventoryMemory();
+    inventory.setStock(1, 10);
+    assertFalse(inventory.reserveOne(EMPTY));
+    assertEquals(0, inventory.getAvailable(EMPTY));
+    assertEquals(10, inventory.getAvailable(1));
+  }
+}
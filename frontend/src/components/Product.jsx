@@ -38,7 +38,7 @@ const Product = ({
   const prevInCartQtyForCheckRef = useRef(inCartQty);
   const hasPicture = Number(pictureVersion) > 0;
   const imageUrl = hasPicture
-    ? `${API_BASE_URL}/api/product/${id}/picture?v=${pictureVersion}`
+    ? `${API_BASE_URL}/api/product/${id}/picture?v=${pictureVersion}&size=600`
     : "";
 
   useEffect(() => {
@@ -71,7 +71,7 @@ const Product = ({
       await setItemQty(id, delta, {
         name,
         price,
-        imageUrl: `/api/product/${id}/picture`,
+        imageUrl: `/api/product/${id}/picture?v=${pictureVersion}&size=200`,
         available: quantity,
       });
 
@@ -3,16 +3,14 @@ import { CartContext } from "../contexts/CartContext";
 import "../styles/ShoppingCart.css";
 
 const ShoppingCart = ({ succeeded = false }) => {
-  const { cartItems, setItemQty } = useContext(CartContext);
+  const { cartItems, queueItemQty } = useContext(CartContext);
 
-  const handleDecrement = async (productId) => {
-
-    await setItemQty(productId, -1);
+  const handleDecrement = (productId) => {
+    queueItemQty(productId, -1);
   };
 
-  const handleIncrement = async (productId) => {
-
-    await setItemQty(productId, 1);
+  const handleIncrement = (productId) => {
+    queueItemQty(productId, 1);
   };
 
   const API_BASE_URL = "http://localhost:8080";
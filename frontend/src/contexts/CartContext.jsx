@@ -6,6 +6,8 @@ const noop = () => {};
 const defaultValue = {
   cartItems: [],
   setItemQty: noop,
+  applyCartBatch: noop,
+  queueItemQty: noop,
   removeFromCart: noop,
   clearCart: noop,
   clearCartAndRelease: noop,
@@ -44,6 +46,29 @@ function migrateItem(raw) {
   };
 }
 
+function toCartItems(serverCart) {
+  return (serverCart || [])
+    .map((item) =>
+      migrateItem({
+        id: item.id,
+        name: item.name,
+        price: item.price,
+        qty: item.qty,
+        imageUrl:
+          item.imageUrl && item.imageUrl.trim()
+            ? item.imageUrl
+            : `/api/product/${item.id}/picture?size=200`,
+        available: item.available ?? Number.POSITIVE_INFINITY,
+
+        weightOunces: item.weightOunces,
+        lengthInches: item.lengthInches,
+        widthInches: item.widthInches,
+        heightInches: item.heightInches,
+      }),
+    )
+    .filter(Boolean);
+}
+
 export function CartProvider({ children }) {
   const [cartItems, setCartItems] = useState([]);
   const isUpdatingRef = useRef(false);
@@ -251,30 +276,90 @@ export function CartProvider({ children }) {
 
     const serverCart = await resp.json();
 
-    const next = (serverCart || [])
-      .map((item) =>
-        migrateItem({
-          id: item.id,
-          name: item.name,
-          price: item.price,
-          qty: item.qty,
-          imageUrl:
-            item.imageUrl && item.imageUrl.trim()
-              ? item.imageUrl
-              : `/api/product/${item.id}/picture`,
-          available: item.available ?? Number.POSITIVE_INFINITY,
-
-          weightOunces: item.weightOunces,
-          lengthInches: item.lengthInches,
-          widthInches: item.widthInches,
-          heightInches: item.heightInches,
+    setCartItems(toCartItems(serverCart));
+  }
+
+  // applies several { productId, delta } changes in one request and takes the
+  // server's resulting cart as the new state
+  async function performApplyBatch(changes) {
+    isUpdatingRef.current = true;
+    try {
+      const resp = await fetch(`${API_BASE_URL}/api/cart/batch`, {
+        method: "POST",
+        credentials: "include",
+        headers: { "Content-Type": "application/json" },
+        body: JSON.stringify(changes),
+      });
+      if (!resp.ok) throw new Error(`cart batch failed ${resp.status}`);
+
+      const ids = changes.map((c) => c.productId);
+      const next = toCartItems(await resp.json());
+      setCartItems((prev) =>
+        next.map((item) => {
+          // the batch response has no stock figures; carry ours forward
+          const before = prev.find((p) => p.id === item.id);
+          const available = Number(before?.available);
+          if (!before || !Number.isFinite(available)) return item;
+          return {
+            ...item,
+            available: Math.max(0, available - (item.qty - before.qty)),
+          };
         }),
-      )
-      .filter(Boolean);
+      );
+      window.dispatchEvent(
+        new CustomEvent("inventory:changed", { detail: ids }),
+      );
+    } finally {
+      isUpdatingRef.current = false;
+    }
+  }
+
+  const applyCartBatch = (changes) => {
+    const run = cartQueue.current.then(() => performApplyBatch(changes));
+    // a failed batch must not stall the changes queued after it
+    cartQueue.current = run.catch(() => {});
+    return run;
+  };
 
-    setCartItems(next);
+  // quantity presses are collected for a moment and sent as one batch, so a
+  // few clicks across several lines cost one request
+  const BATCH_DELAY_MS = 250;
+  const pendingDeltas = useRef(new Map());
+  const pendingTimer = useRef(null);
+
+  function flushPendingDeltas() {
+    const changes = [...pendingDeltas.current]
+      .filter(([, delta]) => delta !== 0)
+      .map(([productId, delta]) => ({ productId, delta }));
+    pendingDeltas.current.clear();
+    if (!changes.length) return;
+    applyCartBatch(changes).catch(() => refreshCart());
   }
 
+  const queueItemQty = (id, delta) => {
+    const pending = pendingDeltas.current;
+    pending.set(id, (pending.get(id) ?? 0) + delta);
+
+    setCartItems((prev) =>
+      prev
+        .map((p) => {
+          if (p.id !== id) return p;
+          const available = Number(p.available);
+          return {
+            ...p,
+            qty: Math.max(0, p.qty + delta),
+            available: Number.isFinite(available)
+              ? Math.max(0, available - delta)
+              : available,
+          };
+        })
+        .filter((p) => p.qty > 0),
+    );
+
+    clearTimeout(pendingTimer.current);
+    pendingTimer.current = setTimeout(flushPendingDeltas, BATCH_DELAY_MS);
+  };
+
   useEffect(() => {
     refreshCart();
   }, []);
@@ -310,6 +395,8 @@ export function CartProvider({ children }) {
   const value = {
     cartItems,
     setItemQty,
+    applyCartBatch,
+    queueItemQty,
     removeFromCart,
     clearCart,
     clearCartAndRelease,
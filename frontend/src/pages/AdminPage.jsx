@@ -1428,7 +1428,7 @@ const AdminPage = () => {
                               product.id
                             }/picture?version=${
                               product.pictureVersion || Date.now()
-                            }`}
+                            }&size=200`}
                             alt={product.name}
                           ></img>
                         </div>
@@ -52,16 +52,26 @@ const ProductPage = ({ products: productsFromProps }) => {
     if (!displayProducts.length) return;
 
     const pollInventory = () => {
-      displayProducts.forEach((product) => {
-        fetchAvailable(product.id);
-      });
+      fetchAvailableBatch(displayProducts.map((product) => product.id));
     };
 
     pollInventory();
 
-    const interval = setInterval(pollInventory, 2000);
+    // Live deltas arrive over SSE; the slow poll only resyncs after reconnects.
+    const source = new EventSource(`${API_BASE_URL}/api/inventory/stream`, {
+      withCredentials: true,
+    });
+    source.addEventListener("stock", (e) => {
+      const byId = JSON.parse(e.data);
+      setAvailableById((prev) => ({ ...prev, ...byId }));
+    });
+
+    const interval = setInterval(pollInventory, 30_000);
 
-    return () => clearInterval(interval);
+    return () => {
+      clearInterval(interval);
+      source.close();
+    };
   }, [displayProducts]);
 
   const modalInCartQty = selectedProduct
@@ -77,7 +87,7 @@ const ProductPage = ({ products: productsFromProps }) => {
     : 0;
   const modalImageUrl =
     selectedProduct && Number(selectedProduct.pictureVersion) > 0
-      ? `${API_BASE_URL}/api/product/${selectedProduct.id}/picture?v=${selectedProduct.pictureVersion}`
+      ? `${API_BASE_URL}/api/product/${selectedProduct.id}/picture?v=${selectedProduct.pictureVersion}&size=1200`
       : "";
 
   async function handleModalQtyChange(nextQty) {
@@ -131,6 +141,17 @@ const ProductPage = ({ products: productsFromProps }) => {
     return qty;
   }
 
+  async function fetchAvailableBatch(ids) {
+    if (!ids.length) return;
+    const resp = await fetch(
+      `${API_BASE_URL}/api/inventory/available?ids=${ids.join(",")}&_=${Date.now()}`,
+      { cache: "no-store", credentials: "include" },
+    );
+    if (!resp.ok) return;
+    const byId = await resp.json();
+    setAvailableById((prev) => ({ ...prev, ...byId }));
+  }
+
   useEffect(() => {
     if (!isProductModalOpen) {
       setShowModalCheck(false);
@@ -159,7 +180,7 @@ const ProductPage = ({ products: productsFromProps }) => {
       const product = await response.json();
       const visibleProducts = product.filter((p) => !p?.productArchived);
 
-      visibleProducts.forEach((p) => fetchAvailable(p.id));
+      fetchAvailableBatch(visibleProducts.map((p) => p.id));
 
       if (!productsFromProps) {
         setProducts(visibleProducts);